@@ -0,0 +1,189 @@
+package protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One message written by a sender's {@link MessageWriter} and read back by a receiver's
+ * {@link MessageReader}, through an in-memory pipe instead of a socket, so only encoding
+ * and decoding are measured. The bytes each message takes on the wire are printed once per
+ * trial, since JMH only reports time.
+ * <p>
+ * Java serialization back-references any object a stream has written before, and keeps it
+ * reachable until the stream is reset, which the server never does. So each message is a
+ * distinct copy out of {@link #STREAM_LIFE}, and the streams are replaced after that many
+ * messages, keeping memory bounded while class descriptors stay cached, as on a long-lived
+ * connection. Action names are string literals, the same instance every time, as in the
+ * client.
+ * <p>
+ * Messages: {@code command} is a bare action ({@code GET_FRIENDS}), {@code friends} a
+ * reply of 20 usernames, {@code image} a {@code SEND_IMAGE} request with two recipients
+ * and a 256 KB image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+    private static final int STREAM_LIFE = 64;
+
+    @Param({"serialization", "binary"})
+    public String encoding;
+
+    @Param({"command", "friends", "image"})
+    public String message;
+
+    private final Pipe pipe = new Pipe();
+    private MessageWriter writer;
+    private MessageReader reader;
+    private final Object[][] messages = new Object[STREAM_LIFE][];
+    private int sent;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, ClassNotFoundException {
+        if (!"binary".equals(encoding) && !"serialization".equals(encoding)) {
+            throw new IllegalArgumentException("Unknown encoding: " + encoding);
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < STREAM_LIFE; i++) {
+            messages[i] = message(message, random);
+        }
+
+        roundTrip();
+        long before = pipe.written;
+        roundTrip();
+        System.out.println();
+        System.out.println(encoding + " " + message + ": " + (pipe.written - before) + " bytes per message");
+    }
+
+    @Benchmark
+    public Object roundTrip() throws IOException, ClassNotFoundException {
+        if (sent % STREAM_LIFE == 0) {
+            openStreams();
+        }
+        Object[] values = messages[sent++ % STREAM_LIFE];
+        for (Object value : values) {
+            writer.write(1, value);
+        }
+        writer.flush();
+        Object last = null;
+        for (int i = 0; i < values.length; i++) {
+            last = reader.readObject();
+        }
+        return last;
+    }
+
+    private void openStreams() throws IOException {
+        if ("binary".equals(encoding)) {
+            writer = new BinaryWriter(pipe.out);
+            reader = new BinaryReader(pipe);
+        } else {
+            writer = new SerializedWriter(pipe.out);
+            reader = new SerializedReader(pipe);
+        }
+    }
+
+    private static Object[] message(String name, Random random) {
+        switch (name) {
+            case "command":
+                return new Object[]{"GET_FRIENDS"};
+            case "friends": {
+                List<String> friends = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    friends.add("user" + i);
+                }
+                return new Object[]{friends};
+            }
+            case "image": {
+                byte[] image = new byte[256 << 10];
+                random.nextBytes(image);
+                return new Object[]{"SEND_IMAGE", new ArrayList<>(List.of("alice", "bob")), image};
+            }
+            default:
+                throw new IllegalArgumentException("Unknown message: " + name);
+        }
+    }
+
+    /** Bytes written are read back in the same thread; the buffer rewinds whenever it runs empty. */
+    private static final class Pipe extends InputStream {
+        private byte[] buf = new byte[1024];
+        private int writePos;
+        private int readPos;
+        long written;
+
+        final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                if (writePos + len > buf.length) {
+                    buf = Arrays.copyOf(buf, Math.max(buf.length * 2, writePos + len));
+                }
+                System.arraycopy(b, off, buf, writePos, len);
+                writePos += len;
+                written += len;
+            }
+        };
+
+        @Override
+        public int read() {
+            if (readPos == writePos) {
+                return -1;
+            }
+            int b = buf[readPos++] & 0xFF;
+            rewindIfEmpty();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int n = Math.min(len, writePos - readPos);
+            if (n <= 0) {
+                return -1;
+            }
+            System.arraycopy(buf, readPos, b, off, n);
+            readPos += n;
+            rewindIfEmpty();
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return writePos - readPos;
+        }
+
+        private void rewindIfEmpty() {
+            if (readPos == writePos) {
+                readPos = 0;
+                writePos = 0;
+            }
+        }
+    }
+}
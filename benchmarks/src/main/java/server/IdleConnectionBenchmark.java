@@ -0,0 +1,170 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The three server modes holding {@code idle} logged-in connections that send nothing:
+ * the round-trip time of one more connection's requests while they sit there, and, printed
+ * once per trial since JMH only reports time, what holding them costs (platform threads,
+ * heap and resident memory after GC, and how long it took to connect them all).
+ * <p>
+ * The request is an unknown action, answered without touching the database, so no MySQL
+ * is needed. Client and server share the JVM, so every connection is two file
+ * descriptors: raise {@code ulimit -n} above twice {@code idle} first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class IdleConnectionBenchmark {
+    @Param({"platform", "virtual", "nio"})
+    public String mode;
+
+    @Param({"10000"})
+    public int idle;
+
+    private PrintStream report;
+    private ServerSocket serverSocket;
+    private final List<Socket> idleClients = new ArrayList<>();
+    private Socket active;
+    private ObjectOutputStream out;
+    private ObjectInputStream in;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // The handlers log every action; keep that out of the measurement
+        report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        int port = startServer();
+        System.gc();
+        long heapBefore = heapUsed();
+        long rssBefore = residentKb();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < idle; i++) {
+            Socket client = new Socket("localhost", port);
+            ObjectOutputStream announce = new ObjectOutputStream(client.getOutputStream());
+            announce.writeObject("UserId: " + (i + 1));
+            announce.flush();
+            idleClients.add(client);
+        }
+        while (Server.activeClients.size() < idle) {
+            Thread.sleep(10);
+        }
+        long connectNanos = System.nanoTime() - start;
+        System.gc();
+        report.printf("%n%s: %d idle connections in %.1f s, +%d platform threads, +%d MB heap, +%d MB resident%n",
+                mode, idle, connectNanos / 1e9, ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore,
+                (heapUsed() - heapBefore) >> 20, (residentKb() - rssBefore) >> 10);
+
+        active = new Socket("localhost", port);
+        out = new ObjectOutputStream(active.getOutputStream());
+        in = new ObjectInputStream(active.getInputStream());
+        out.writeObject("UserId: " + (idle + 1));
+        out.flush();
+    }
+
+    private int startServer() throws IOException {
+        if ("nio".equals(mode)) {
+            int port;
+            try (ServerSocket probe = new ServerSocket(0)) {
+                port = probe.getLocalPort();
+            }
+            NioServer server = new NioServer(port, Math.min(4, Runtime.getRuntime().availableProcessors()), 16);
+            daemon(() -> {
+                server.run();
+                return null;
+            });
+            return port;
+        }
+        serverSocket = new ServerSocket(0, 1024);
+        boolean virtual = "virtual".equals(mode);
+        daemon(() -> {
+            Server.serve(serverSocket, virtual);
+            return null;
+        });
+        return serverSocket.getLocalPort();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        active.close();
+        for (Socket client : idleClients) {
+            client.close();
+        }
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        System.setOut(report);
+    }
+
+    @Benchmark
+    public Object roundTrip() throws IOException, ClassNotFoundException {
+        out.writeObject("PING");
+        out.flush();
+        return in.readObject();
+    }
+
+    private interface Task {
+        Void run() throws IOException;
+    }
+
+    private static void daemon(Task task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                // server socket closed in tearDown
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // VmRSS from /proc on Linux, 0 elsewhere
+    private static long residentKb() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not Linux
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,175 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import protocol.BinaryWriter;
+import protocol.MessageChannel;
+import protocol.Wire;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One binary client sending an image to {@code recipients} binary image sessions, from the
+ * request until every recipient has it and the sender has its answer. Recipients drain the
+ * frames into a scratch buffer rather than decoding them, so with {@code -prof gc} the
+ * allocation per relay is the server's and the sender's.
+ * <p>
+ * The database is replaced by a map of the recipients' names, so no MySQL is needed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class ImageRelayBenchmark {
+    @Param({"platform", "nio"})
+    public String mode;
+
+    @Param({"1", "8"})
+    public int recipients;
+
+    @Param({"1048576"})
+    public int imageBytes;
+
+    private PrintStream report;
+    private ServerSocket serverSocket;
+    private MessageChannel sender;
+    private final List<Socket> sessions = new ArrayList<>();
+    private final List<DataInputStream> sessionInputs = new ArrayList<>();
+    private List<String> names;
+    private byte[] image;
+    private byte[] scratch;
+    private int relayedBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        names = new ArrayList<>();
+        for (int i = 0; i < recipients; i++) {
+            names.add("user" + (i + 2));
+        }
+        Server.db = new DBConnection() {
+            @Override
+            public int getUserIdByUsername(String username) {
+                int index = names.indexOf(username);
+                return index < 0 ? -1 : index + 2;
+            }
+        };
+        int port = startServer();
+
+        image = new byte[imageBytes];
+        new Random(1).nextBytes(image);
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        BinaryWriter push = new BinaryWriter(frames);
+        push.write(0, "RECEIVE_IMAGE");
+        push.write(0, image);
+        relayedBytes = frames.size();
+        scratch = new byte[64 << 10];
+
+        for (int i = 0; i < recipients; i++) {
+            Socket session = new Socket("localhost", port);
+            OutputStream out = session.getOutputStream();
+            ByteArrayOutputStream hello = new ByteArrayOutputStream();
+            hello.write(Wire.hello(Wire.VERSION));
+            new BinaryWriter(hello).write(1, "ImageUserId: " + (i + 2));
+            out.write(hello.toByteArray());
+            out.flush();
+            DataInputStream in = new DataInputStream(session.getInputStream());
+            in.readFully(new byte[4 + Wire.HELLO_LENGTH]); // serialization stream header, then the hello reply
+            sessions.add(session);
+            sessionInputs.add(in);
+        }
+        while (Server.activeImageClients.size() < recipients) {
+            Thread.sleep(10);
+        }
+        sender = MessageChannel.connect("localhost", port);
+        sender.send("UserId: 1");
+    }
+
+    private int startServer() throws IOException {
+        if ("nio".equals(mode)) {
+            int port;
+            try (ServerSocket probe = new ServerSocket(0)) {
+                port = probe.getLocalPort();
+            }
+            NioServer server = new NioServer(port, Math.min(4, Runtime.getRuntime().availableProcessors()), 16);
+            Thread loop = new Thread(() -> {
+                try {
+                    server.run();
+                } catch (IOException e) {
+                    // benchmark over
+                }
+            });
+            loop.setDaemon(true);
+            loop.start();
+            return port;
+        }
+        // Bound through a channel, as Server.main does, so accepted sockets have one
+        serverSocket = ServerSocketChannel.open().bind(new InetSocketAddress(0)).socket();
+        Thread acceptor = new Thread(() -> {
+            try {
+                Server.serve(serverSocket, false);
+            } catch (IOException e) {
+                // server socket closed in tearDown
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket.getLocalPort();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sender.close();
+        for (Socket session : sessions) {
+            session.close();
+        }
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        Server.activeImageClients.clear();
+        Server.activeClients.clear();
+        System.setOut(report);
+    }
+
+    @Benchmark
+    public Object relay() throws IOException, ClassNotFoundException {
+        sender.send("SEND_IMAGE", names, image);
+        // In recipient order: the threaded server writes to one before the next
+        for (DataInputStream in : sessionInputs) {
+            for (int left = relayedBytes; left > 0; ) {
+                int n = in.read(scratch, 0, Math.min(scratch.length, left));
+                if (n < 0) {
+                    throw new IOException("Session closed");
+                }
+                left -= n;
+            }
+        }
+        return sender.receive();
+    }
+}
@@ -0,0 +1,68 @@
+package steganography;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/** Deterministic random covers for the benchmarks. */
+final class BenchImages {
+    private BenchImages() {
+    }
+
+    /** resolution is "WIDTHxHEIGHT"; type is one of the BufferedImage.TYPE_* names below. */
+    static BufferedImage cover(String resolution, String type) {
+        String[] dims = resolution.split("x");
+        int width = Integer.parseInt(dims[0]);
+        int height = Integer.parseInt(dims[1]);
+        BufferedImage image = new BufferedImage(width, height, imageType(type));
+        Random random = new Random(42);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = random.nextInt();
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    /**
+     * A TYPE_INT_RGB gradient with a little noise, which compresses roughly like a photo;
+     * the random covers above are incompressible and useless for PNG timings.
+     */
+    static BufferedImage smoothCover(String resolution) {
+        String[] dims = resolution.split("x");
+        int width = Integer.parseInt(dims[0]);
+        int height = Integer.parseInt(dims[1]);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = ((x / 7 + y / 5) * 0x030201 + random.nextInt(4)) & 0xFFFFFF;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    static byte[] payload(int size) {
+        byte[] payload = new byte[size];
+        new Random(7).nextBytes(payload);
+        return payload;
+    }
+
+    static int imageType(String type) {
+        switch (type) {
+            case "INT_RGB":
+                return BufferedImage.TYPE_INT_RGB;
+            case "INT_ARGB":
+                return BufferedImage.TYPE_INT_ARGB;
+            case "3BYTE_BGR":
+                return BufferedImage.TYPE_3BYTE_BGR;
+            case "4BYTE_ABGR":
+                return BufferedImage.TYPE_4BYTE_ABGR;
+            default:
+                throw new IllegalArgumentException("Unknown image type " + type);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package steganography;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The payload-to-bits step: the packed BitReader/BitWriter pipeline against the String
+ * based toBinary/fromBinary it replaced (kept here only as a reference point).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitStreamBenchmark {
+    @Param({"100", "10240", "1048576"})
+    public int payloadBytes;
+
+    private byte[] payload;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        payload = BenchImages.payload(payloadBytes);
+        char[] chars = new char[payloadBytes];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + (payload[i] & 15));
+        }
+        text = new String(chars);
+    }
+
+    @Benchmark
+    public byte[] bitStreamRoundTrip() {
+        BitReader in = new BitReader(payload);
+        BitWriter out = new BitWriter(payload.length);
+        while (in.hasNext()) {
+            out.writeBit(in.readBit());
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public String legacyToBinaryFromBinary() {
+        StringBuilder bin = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            bin.append(String.format("%8s", Integer.toBinaryString(c)).replace(' ', '0'));
+        }
+        StringBuilder back = new StringBuilder();
+        for (int i = 0; i < bin.length(); i += 8) {
+            back.append((char) Integer.parseInt(bin.substring(i, i + 8), 2));
+        }
+        return back.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package steganography;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of embedding into and extracting from an in-memory cover (no image I/O), i.e. the
+ * old embedData/extractData path. Payloads that do not fit the cover are skipped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class CodecBenchmark {
+    @Param({"640x480", "1920x1080", "4000x3000", "8660x5773"})
+    public String resolution;
+
+    @Param({"INT_RGB", "INT_ARGB", "3BYTE_BGR", "4BYTE_ABGR"})
+    public String imageType;
+
+    @Param({"100", "10240", "1048576"})
+    public int payloadBytes;
+
+    @Param({"1", "3"})
+    public int redundancy;
+
+    @Param({"NONE", "HAMMING_7_4", "REED_SOLOMON"})
+    public Fec fec;
+
+    @Param({"0", "3"})
+    public int matrixBits;
+
+    @Param({"1", "2", "4"})
+    public int bitsPerChannel;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    /** Key kind: positions scattered over the whole image, or keyed 1024-pixel blocks. */
+    @Param({"global", "block"})
+    public String permutation;
+
+    private BufferedImage cover;
+    private byte[] payload;
+    private PositionSequence positions;
+    private StegoOptions options;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cover = BenchImages.cover(resolution, imageType);
+        payload = BenchImages.payload(payloadBytes);
+        long channels = StegoEngine.channelCount(cover);
+        positions = ("block".equals(permutation) ? SequenceKey.generateBlocked(channels) : SequenceKey.generate(channels))
+                .toPositions();
+        pool = parallel ? ForkJoinPool.commonPool() : null;
+        options = StegoOptions.defaults().withRedundancy(redundancy).withFec(fec).withMatrixEmbedding(matrixBits)
+                .withBitsPerChannel(bitsPerChannel);
+        if (!CapacityPlan.of(cover.getWidth(), cover.getHeight(), payloadBytes, options).fits()) {
+            throw new IllegalStateException("Payload does not fit " + resolution + ", skipping");
+        }
+        StegoCodec.embed(cover, payload, positions, options, pool);
+    }
+
+    @Benchmark
+    public BufferedImage embed() {
+        StegoCodec.embed(cover, payload, positions, options, pool);
+        return cover;
+    }
+
+    @Benchmark
+    public byte[] extract() {
+        return StegoCodec.extract(cover, positions, pool);
+    }
+}
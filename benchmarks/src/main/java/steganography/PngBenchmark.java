@@ -0,0 +1,83 @@
+package steganography;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding a stego PNG in memory with ImageIO against {@link PngCodec}. The
+ * encoded size of each configuration is printed once per trial, since JMH only reports time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class PngBenchmark {
+    @Param({"1920x1080", "4000x3000"})
+    public String resolution;
+
+    @Param({"1", "4", "6"})
+    public int level;
+
+    @Param({"SUB", "PAETH", "ADAPTIVE"})
+    public PngFilter filter;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private BufferedImage image;
+    private byte[] encoded;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        image = BenchImages.smoothCover(resolution);
+        pool = parallel ? ForkJoinPool.commonPool() : null;
+        encoded = pngCodecWrite();
+        System.out.println("PngCodec " + level + "/" + filter + ": " + encoded.length + " bytes, ImageIO: "
+                + imageIoWrite().length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] imageIoWrite() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] pngCodecWrite() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngCodec.write(image, out, level, filter, pool);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public BufferedImage imageIoRead() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(encoded));
+    }
+
+    @Benchmark
+    public BufferedImage pngCodecRead() throws IOException {
+        return PngCodec.read(new ByteArrayInputStream(encoded));
+    }
+}
@@ -0,0 +1,112 @@
+package steganography;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Position sequence generation and storage: the full Fisher-Yates shuffle that
+ * generatePseudoRandomSequence used to do, the on-demand Feistel sequence for the first
+ * {@code positions} slots, the same for the block permutation (positions only; the
+ * locality gain shows in {@link CodecBenchmark}'s {@code permutation} parameter), the legacy comma-separated text codec
+ * (sequenceToString/stringToSequence) and the bit-packed {@link SequenceBlob} that replaces it. The text codec is limited to resolutions whose
+ * string still fits in a Java String.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class SequenceBenchmark {
+    @Param({"640x480", "1920x1080", "4000x3000"})
+    public String resolution;
+
+    /** Slots a typical payload touches: 100 B, 10 KiB and 1 MiB at redundancy 3. */
+    @Param({"2592", "245952", "25166016"})
+    public int positions;
+
+    private int length;
+    private SequenceKey fisherYates;
+    private SequenceKey feistel;
+    private SequenceKey blocked;
+    private int[] sequence;
+    private String sequenceText;
+    private SequenceKey legacy;
+    private byte[] sequenceBlob;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] dims = resolution.split("x");
+        length = Integer.parseInt(dims[0]) * Integer.parseInt(dims[1]) * 3;
+        fisherYates = SequenceKey.generate(SequenceKey.FISHER_YATES, length);
+        feistel = SequenceKey.generate(SequenceKey.FEISTEL, length);
+        blocked = SequenceKey.generate(SequenceKey.BLOCK_FEISTEL, length);
+        sequence = fisherYates.toSequence();
+        sequenceText = SequenceKey.sequenceToString(sequence);
+        legacy = SequenceKey.ofSequence(sequence);
+        sequenceBlob = legacy.toBlob(false);
+    }
+
+    @Benchmark
+    public int[] fisherYatesFullShuffle() {
+        return fisherYates.toSequence();
+    }
+
+    @Benchmark
+    public void feistelOnDemand(Blackhole bh) {
+        PositionSequence seq = feistel.toPositions();
+        int n = Math.min(positions, length);
+        for (int i = 0; i < n; i++) {
+            bh.consume(seq.position(i));
+        }
+    }
+
+    @Benchmark
+    public void blockFeistelOnDemand(Blackhole bh) {
+        PositionSequence seq = blocked.toPositions();
+        int n = Math.min(positions, length);
+        for (int i = 0; i < n; i++) {
+            bh.consume(seq.position(i));
+        }
+    }
+
+    @Benchmark
+    public String sequenceToString() {
+        return SequenceKey.sequenceToString(sequence);
+    }
+
+    @Benchmark
+    public int[] stringToSequence() {
+        return SequenceKey.stringToSequence(sequenceText);
+    }
+
+    @Benchmark
+    public byte[] sequenceToBlob() {
+        return legacy.toBlob(false);
+    }
+
+    @Benchmark
+    public SequenceKey blobToSequence() throws IOException {
+        return SequenceKey.fromBlob(new ByteArrayInputStream(sequenceBlob));
+    }
+
+    @Benchmark
+    public String seedKeyEncode() {
+        return feistel.encode();
+    }
+}
@@ -0,0 +1,86 @@
+package steganography;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SequenceStore} lookups and saves without a database: the in-memory store and the
+ * memory-mapped file store, pre-filled with {@code keys} Feistel keys. {@code reopen}
+ * measures the file store's start-up scan that rebuilds its index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SequenceStoreBenchmark {
+    @Param({"memory", "file"})
+    public String store;
+
+    @Param({"1000", "100000"})
+    public int keys;
+
+    private File file;
+    private SequenceStore sequences;
+    private String[] ids;
+    private SequenceKey key;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("sequences", ".seq");
+        file.delete();
+        sequences = "file".equals(store) ? new MappedSequenceStore(file) : new MemorySequenceStore();
+        key = SequenceKey.generate(1920 * 1080 * 3);
+        ids = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            ids[i] = UUID.randomUUID().toString();
+            sequences.save(ids[i], key);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sequences.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public SequenceKey find() throws IOException {
+        next = next + 1 == ids.length ? 0 : next + 1;
+        return sequences.find(ids[next]);
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        sequences.save(UUID.randomUUID().toString(), key);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int reopen() throws IOException {
+        if (!(sequences instanceof MappedSequenceStore)) {
+            return 0;
+        }
+        sequences.close();
+        sequences = new MappedSequenceStore(file);
+        return ((MappedSequenceStore) sequences).size();
+    }
+}
@@ -1,5 +1,6 @@
 package client;
 
+import protocol.MessageChannel;
 import steganography.StegoPanel;
 import javax.swing.*;
 import java.awt.*;
@@ -10,7 +11,6 @@ import java.awt.dnd.DropTargetDropEvent;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
-import java.net.Socket;
 import java.nio.file.Files;
 import java.util.List;
 import java.util.Map;
@@ -20,9 +20,7 @@ public class DashBoard extends JFrame {
     private JButton btn_sendRequest;
     private JButton btn_receiveRequests;
     private JTextField txt_friendUsername;
-    private Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private MessageChannel server;
     private JList<String> friendList;
     private DefaultListModel<String> friendListModel;
     private JPanel imagePanelArea, imagePanel;
@@ -126,12 +124,8 @@ public class DashBoard extends JFrame {
         try {
             String envFilePath = "client/.env";
             Map<String, String> envVars = EnvLoader.loadEnv(envFilePath);
-            socket = new Socket(envVars.get("URL"), Integer.parseInt(envVars.get("PORT")));
-            out = new ObjectOutputStream(socket.getOutputStream());
-//            out.flush();
-            in = new ObjectInputStream(socket.getInputStream());
-            out.writeObject("UserId: " + userId);
-            out.flush();
+            server = MessageChannel.connect(envVars.get("URL"), Integer.parseInt(envVars.get("PORT")));
+            server.send("UserId: " + userId);
             loadFriends();
             new ImageReceiver(userId).start(); // Start the image receiver thread
         } catch (IOException e) {
@@ -148,9 +142,8 @@ public class DashBoard extends JFrame {
 
     private void loadFriends() {
         try {
-            out.writeObject("GET_FRIENDS");
-            out.flush();
-            Object response = in.readObject();
+            server.send("GET_FRIENDS");
+            Object response = server.receive();
             if (response instanceof List<?>) {
                 List<?> responseList = (List<?>) response;
                 if (responseList.isEmpty() || responseList.get(0) instanceof String) {
@@ -179,9 +172,8 @@ public class DashBoard extends JFrame {
         String friendUsername = JOptionPane.showInputDialog(this, "Enter friend's username:");
         if (friendUsername != null && !friendUsername.trim().isEmpty()) {
             try {
-                out.writeObject("SEND_FRIEND_REQUEST");
-                out.writeObject(friendUsername);
-                Object response = in.readObject();
+                server.send("SEND_FRIEND_REQUEST", friendUsername);
+                Object response = server.receive();
                 System.out.println(response);
                 if ("SUCCESS".equals(response)) {
                     JOptionPane.showMessageDialog(this, "Friend request sent.");
@@ -198,9 +190,8 @@ public class DashBoard extends JFrame {
 
     private void showPendingRequests() {
         try {
-            out.writeObject("GET_PENDING_REQUESTS");
-            out.flush();
-            Object response = in.readObject();
+            server.send("GET_PENDING_REQUESTS");
+            Object response = server.receive();
             System.out.println(response.getClass());
             if (response instanceof List<?>) {
                 List<String> requests = (List<String>) response;
@@ -231,15 +222,11 @@ public class DashBoard extends JFrame {
             int option = JOptionPane.showConfirmDialog(this, senderUsername + " sent you a friend request. Do you accept?");
             try {
                 if (option == JOptionPane.YES_OPTION) {
-                    out.writeObject("UPDATE_FRIEND_REQUEST");
-                    out.writeObject(requestId);
-                    out.writeObject("ACCEPTED");
+                    server.send("UPDATE_FRIEND_REQUEST", requestId, "ACCEPTED");
                 } else if (option == JOptionPane.NO_OPTION) {
-                    out.writeObject("UPDATE_FRIEND_REQUEST");
-                    out.writeObject(requestId);
-                    out.writeObject("DECLINED");
+                    server.send("UPDATE_FRIEND_REQUEST", requestId, "DECLINED");
                 }
-                Object response = in.readObject();
+                Object response = server.receive();
                 if (!"SUCCESS".equals(response)) {
                     JOptionPane.showMessageDialog(this, "Error updating friend request.");
                 } else {
@@ -269,23 +256,19 @@ public class DashBoard extends JFrame {
         try {
             if (droppedImageBytes != null) {
                 // Send the image data
-                out.writeObject("SEND_IMAGE");
-
-                out.flush();
-
-                out.writeObject(friendList.getSelectedValuesList());
-                out.flush();
-
-                out.writeObject(droppedImageBytes);
-                out.flush(); // Ensure all data is sent
+                server.send("SEND_IMAGE", friendList.getSelectedValuesList(), droppedImageBytes);
 
                 // Wait for the response
-                Object response = in.readObject();
+                Object response = server.receive();
                 System.out.println("Received response: " + response.getClass().getName());
 
                 if ("IMAGE_SENT".equals(response)) {
                     JOptionPane.showMessageDialog(this, "Image sent successfully.");
                     resetAfterSend();
+                } else if (response instanceof List<?>) {
+                    // A server that reports each recipient: name, then QUEUED, BUSY, EVICTED or UNREACHABLE
+                    showDeliveries((List<?>) response);
+                    resetAfterSend();
                 } else if ("EMPTY_RECEIVER_LIST".equals(response)) {
                     JOptionPane.showMessageDialog(this, "Please select user to send image to.");
                     resetAfterSend();
@@ -317,9 +300,29 @@ public class DashBoard extends JFrame {
     }
 
 
+    private void showDeliveries(List<?> deliveries) {
+        StringBuilder failed = new StringBuilder();
+        for (int i = 0; i + 1 < deliveries.size(); i += 2) {
+            Object recipient = deliveries.get(i);
+            Object delivery = deliveries.get(i + 1);
+            if ("BUSY".equals(delivery)) {
+                failed.append(recipient).append(" is still receiving earlier images. Try again later.\n");
+            } else if ("EVICTED".equals(delivery)) {
+                failed.append(recipient).append(" was disconnected for falling too far behind.\n");
+            } else if (!"QUEUED".equals(delivery)) {
+                failed.append(recipient).append(" is not ready to receive. Make sure recipient is online!\n");
+            }
+        }
+        if (failed.length() == 0) {
+            JOptionPane.showMessageDialog(this, "Image sent successfully.");
+        } else {
+            JOptionPane.showMessageDialog(this, failed.toString().trim());
+        }
+    }
+
     private void logout() {
         try {
-            socket.close();
+            server.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -346,18 +349,16 @@ class ImageReceiver extends Thread {
         try {
             String envFilePath = "client/.env";
             Map<String, String> envVars = EnvLoader.loadEnv(envFilePath);
-            Socket socket = new Socket(envVars.get("URL"), Integer.parseInt(envVars.get("PORT")));
-            ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
-            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-            out.writeObject("ImageUserId: " + userId);
+            MessageChannel server = MessageChannel.connect(envVars.get("URL"), Integer.parseInt(envVars.get("PORT")));
+            server.send("ImageUserId: " + userId);
             while (true) {
 
-                Object response = in.readObject();
+                Object response = server.receive();
 //                    System.out.println(response.getClass().getName());
 //                    System.out.println(response);
                 if ("RECEIVE_IMAGE".equals(response)) {
                     System.out.println("Recieving image");
-                    byte[] imageBytes = (byte[]) in.readObject();
+                    byte[] imageBytes = (byte[]) server.receive();
                     // Create a temporary file to store the received image
                     File tempFile = File.createTempFile("received_image", ".png");
                     try (FileOutputStream fos = new FileOutputStream(tempFile)) {
@@ -1,11 +1,12 @@
 package client;
 
+import protocol.MessageChannel;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
-import java.net.Socket;
 import java.util.Map;
 
 public class LoginPage extends JFrame implements ActionListener {
@@ -13,9 +14,7 @@ public class LoginPage extends JFrame implements ActionListener {
     private JTextField txt_username;
     private JPasswordField txt_password;
     private JButton btn_login, btn_register;
-    private Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private MessageChannel server;
 
     public LoginPage() {
         setTitle("Login Page");
@@ -70,26 +69,20 @@ public class LoginPage extends JFrame implements ActionListener {
                     String envFilePath = "client/.env";
                     Map<String, String> envVars = EnvLoader.loadEnv(envFilePath);
                     System.out.println("Connecting to server...");
-                    socket = new Socket(envVars.get("URL"), Integer.parseInt(envVars.get("PORT")));
-                    out = new ObjectOutputStream(socket.getOutputStream());
-                    in = new ObjectInputStream(socket.getInputStream());
+                    server = MessageChannel.connect(envVars.get("URL"), Integer.parseInt(envVars.get("PORT")));
 
                     System.out.println("Sending login request");
-                    out.writeObject("LOGIN");
-                    out.writeObject(username);
-                    out.writeObject(password);
+                    server.send("LOGIN", username, password);
                     System.out.println("Login request sent");
 
-                    Object response = in.readObject();
+                    Object response = server.receive();
 
                     if (response instanceof String) {
                         String responseStr = (String) response;
                         if (responseStr.startsWith("SUCCESS")) {
                             int userId = Integer.parseInt(responseStr.substring("SUCCESS".length()).trim());
                             JOptionPane.showMessageDialog(this, "Login Successful", "Successful", JOptionPane.INFORMATION_MESSAGE);
-                            out.close();
-                            in.close();
-                            socket.close();
+                            server.close();
                             new DashBoard(userId, username);
                             dispose();
 
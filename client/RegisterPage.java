@@ -1,11 +1,12 @@
 package client;
 
+import protocol.MessageChannel;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
-import java.net.Socket;
 import java.util.Map;
 
 public class RegisterPage extends JFrame implements ActionListener {
@@ -13,9 +14,7 @@ public class RegisterPage extends JFrame implements ActionListener {
     private JTextField txt_username;
     private JPasswordField txt_password;
     private JButton btn_register, btn_back;
-    private Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private MessageChannel server;
 
     public RegisterPage() {
         setTitle("Register Page");
@@ -74,15 +73,11 @@ public class RegisterPage extends JFrame implements ActionListener {
                 try {
                     String envFilePath = "client/.env";
                     Map<String, String> envVars = EnvLoader.loadEnv(envFilePath);
-                    socket = new Socket(envVars.get("URL"), Integer.parseInt(envVars.get("PORT")));
-                    out = new ObjectOutputStream(socket.getOutputStream());
-                    in = new ObjectInputStream(socket.getInputStream());
+                    server = MessageChannel.connect(envVars.get("URL"), Integer.parseInt(envVars.get("PORT")));
 
-                    out.writeObject("REGISTER");
-                    out.writeObject(username);
-                    out.writeObject(password);
+                    server.send("REGISTER", username, password);
 
-                    String response = (String) in.readObject();
+                    String response = (String) server.receive();
                     if ("SUCCESS".equals(response)) {
                         JOptionPane.showMessageDialog(this, "Registration Successful", "Successful", JOptionPane.INFORMATION_MESSAGE);
                         new LoginPage();
@@ -0,0 +1,210 @@
+package protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Reads {@link Wire} frames. The header is read a byte at a time, so give it a buffered
+ * stream when reading from a socket.
+ */
+public final class BinaryReader implements MessageReader {
+    private final InputStream in;
+    private final ReadableByteChannel bulkSource;
+    private final int bulkThreshold;
+    private final IntFunction<ByteBuffer> bulkAllocator;
+    private int requestId;
+
+    public BinaryReader(InputStream in) {
+        this.in = in;
+        this.bulkSource = null;
+        this.bulkThreshold = Integer.MAX_VALUE;
+        this.bulkAllocator = null;
+    }
+
+    /**
+     * Has {@link #readBulkObject} read byte arrays of bulkThreshold bytes or more into a
+     * buffer from bulkAllocator instead of a byte[], and return that buffer flipped. The
+     * reader buffers in itself, so pass it unbuffered: a payload starts with whatever that
+     * buffer holds, and the rest comes straight from bulkSource, the channel behind in.
+     */
+    public BinaryReader(InputStream in, ReadableByteChannel bulkSource, int bulkThreshold,
+                        IntFunction<ByteBuffer> bulkAllocator) {
+        this.in = new Buffered(in);
+        this.bulkSource = bulkSource;
+        this.bulkThreshold = bulkThreshold;
+        this.bulkAllocator = bulkAllocator;
+    }
+
+    @Override
+    public Object readObject() throws IOException {
+        return read(false);
+    }
+
+    /**
+     * Reads the next object like {@link #readObject}, except that a byte array of the bulk
+     * threshold or more comes in a buffer from the bulk allocator, which the caller owns.
+     */
+    public Object readBulkObject() throws IOException {
+        return read(true);
+    }
+
+    @Override
+    public int requestId() {
+        return requestId;
+    }
+
+    private Object read(boolean bulk) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            throw new EOFException();
+        }
+        requestId = readVarint();
+        int length = readVarint();
+        Wire.checkLength(length);
+        if (bulk && type == Wire.BYTES && length >= bulkThreshold) {
+            return readBulk(length);
+        }
+        byte[] payload = new byte[length];
+        if (in.readNBytes(payload, 0, length) < length) {
+            throw new EOFException("Frame ends early");
+        }
+        try {
+            return decode(type, payload);
+        } catch (BufferUnderflowException e) {
+            throw new StreamCorruptedException("Frame payload ends early");
+        }
+    }
+
+    private ByteBuffer readBulk(int length) throws IOException {
+        ByteBuffer payload = bulkAllocator.apply(length);
+        payload.limit(payload.position() + length);
+        ((Buffered) in).drainTo(payload);
+        while (payload.hasRemaining()) {
+            if (bulkSource.read(payload) < 0) {
+                throw new EOFException("Frame ends early");
+            }
+        }
+        return payload.flip();
+    }
+
+    private static Object decode(int type, byte[] payload) throws StreamCorruptedException {
+        switch (type) {
+            case Wire.TEXT:
+                return new String(payload, StandardCharsets.UTF_8);
+            case Wire.INT: {
+                int zigzag = Wire.varint(ByteBuffer.wrap(payload));
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+            case Wire.TEXT_LIST: {
+                ByteBuffer entries = ByteBuffer.wrap(payload);
+                int count = Wire.varint(entries);
+                if (count < 0 || count > payload.length) {
+                    throw new StreamCorruptedException("Invalid list size: " + count);
+                }
+                List<String> list = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    int length = Wire.varint(entries);
+                    if (length < 0 || length > entries.remaining()) {
+                        throw new StreamCorruptedException("Invalid list entry length: " + length);
+                    }
+                    list.add(new String(payload, entries.position(), length, StandardCharsets.UTF_8));
+                    entries.position(entries.position() + length);
+                }
+                return list;
+            }
+            case Wire.BYTES:
+                return payload;
+            default:
+                throw new StreamCorruptedException("Unknown frame type: " + type);
+        }
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Frame ends early");
+            }
+            value |= (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Varint longer than 5 bytes");
+    }
+
+    /**
+     * A buffered stream that can hand what it has buffered to a bulk read. Not a
+     * BufferedInputStream subclass, whose reads lock a monitor and so pin a virtual thread.
+     */
+    private static final class Buffered extends InputStream {
+        private final InputStream in;
+        private final byte[] buf = new byte[8192];
+        private int pos;
+        private int count;
+
+        Buffered(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos == count && !fill()) {
+                return -1;
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos == count) {
+                if (len >= buf.length) {
+                    return in.read(b, off, len);
+                }
+                if (!fill()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(count - pos, len);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return count - pos + in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        void drainTo(ByteBuffer dst) {
+            int n = Math.min(count - pos, dst.remaining());
+            dst.put(buf, pos, n);
+            pos += n;
+        }
+
+        private boolean fill() throws IOException {
+            int n = in.read(buf, 0, buf.length);
+            pos = 0;
+            count = Math.max(n, 0);
+            return n > 0;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes {@link Wire} frames. Each frame reaches the underlying stream in a single write,
+ * except byte arrays over {@link #COPY_LIMIT}, whose header goes first and whose contents
+ * follow without being copied.
+ */
+public final class BinaryWriter implements MessageWriter {
+    private static final int COPY_LIMIT = 8 << 10;
+
+    private final OutputStream out;
+    private byte[] buf = new byte[256];
+    private int len;
+
+    public BinaryWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int requestId, Object value) throws IOException {
+        len = 0;
+        if (value instanceof String) {
+            byte[] utf8 = ((String) value).getBytes(StandardCharsets.UTF_8);
+            header(Wire.TEXT, requestId, utf8.length);
+            put(utf8);
+        } else if (value instanceof Integer) {
+            int n = (Integer) value;
+            int zigzag = (n << 1) ^ (n >> 31);
+            header(Wire.INT, requestId, Wire.varintSize(zigzag));
+            putVarint(zigzag);
+        } else if (value instanceof List<?>) {
+            List<?> list = (List<?>) value;
+            byte[][] entries = new byte[list.size()][];
+            int length = Wire.varintSize(entries.length);
+            for (int i = 0; i < entries.length; i++) {
+                if (!(list.get(i) instanceof String)) {
+                    throw new IllegalArgumentException("Only lists of strings have a wire encoding");
+                }
+                entries[i] = ((String) list.get(i)).getBytes(StandardCharsets.UTF_8);
+                length += Wire.varintSize(entries[i].length) + entries[i].length;
+            }
+            header(Wire.TEXT_LIST, requestId, length);
+            putVarint(entries.length);
+            for (byte[] entry : entries) {
+                putVarint(entry.length);
+                put(entry);
+            }
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            header(Wire.BYTES, requestId, bytes.length);
+            if (bytes.length > COPY_LIMIT) {
+                out.write(buf, 0, len);
+                out.write(bytes);
+                return;
+            }
+            put(bytes);
+        } else {
+            throw new IllegalArgumentException("No wire encoding for "
+                    + (value == null ? "null" : value.getClass().getName()));
+        }
+        out.write(buf, 0, len);
+    }
+
+    /**
+     * Writes the header of a byte array frame of length bytes and leaves the bytes to the
+     * caller, who may have them outside the heap.
+     */
+    public void writeBytesHeader(int requestId, int length) throws IOException {
+        len = 0;
+        header(Wire.BYTES, requestId, length);
+        out.write(buf, 0, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private void header(int type, int requestId, int payloadLength) {
+        ensure(1 + 5 + 5);
+        buf[len++] = (byte) type;
+        putVarint(requestId);
+        putVarint(payloadLength);
+    }
+
+    private void putVarint(int value) {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            buf[len++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        buf[len++] = (byte) value;
+    }
+
+    private void put(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, len, bytes.length);
+        len += bytes.length;
+    }
+
+    private void ensure(int more) {
+        if (len + more > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + more));
+        }
+    }
+}
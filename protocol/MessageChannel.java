@@ -0,0 +1,124 @@
+package protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A client's connection to the server. {@link #connect} offers the {@link Wire} format and
+ * falls back to Java serialization when the server is too old to answer; such servers are
+ * remembered for the rest of the run, so only the first connection pays for the retry.
+ * <p>
+ * A request is an action and its arguments, sent together by {@link #send} and flushed as
+ * one write. In the binary format each request gets the next request ID, and
+ * {@link #receive} skips replies left over from earlier requests, such as the status the
+ * server sends for each unreachable image recipient ahead of its final answer. One thread
+ * at a time.
+ */
+public final class MessageChannel implements Closeable {
+    /** The Java serialization stream header every server opens a connection with. */
+    private static final int STREAM_HEADER_LENGTH = 4;
+    private static final Set<String> SERIALIZATION_ONLY = ConcurrentHashMap.newKeySet();
+
+    private final Socket socket;
+    private final MessageReader in;
+    private final MessageWriter out;
+    private final boolean binary;
+    private int requestId;
+
+    private MessageChannel(Socket socket, MessageReader in, MessageWriter out, boolean binary) {
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+        this.binary = binary;
+    }
+
+    public static MessageChannel connect(String host, int port) throws IOException {
+        String server = host + ":" + port;
+        if (!SERIALIZATION_ONLY.contains(server)) {
+            MessageChannel channel = connectBinary(host, port);
+            if (channel != null) {
+                return channel;
+            }
+            SERIALIZATION_ONLY.add(server);
+        }
+        return connectSerialized(host, port);
+    }
+
+    /** Connects without offering the binary format, as clients before it did. */
+    public static MessageChannel connectSerialized(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        try {
+            MessageWriter out = new SerializedWriter(socket.getOutputStream());
+            return new MessageChannel(socket, new SerializedReader(socket.getInputStream()), out, false);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // null if the server hung up on the hello
+    private static MessageChannel connectBinary(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        try {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            out.write(Wire.hello(Wire.VERSION));
+            out.flush();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            byte[] greeting = new byte[STREAM_HEADER_LENGTH + Wire.HELLO_LENGTH];
+            new DataInputStream(in).readFully(greeting);
+            int version = Wire.helloVersion(Arrays.copyOfRange(greeting, STREAM_HEADER_LENGTH, greeting.length));
+            if (version < 1 || version > Wire.VERSION) {
+                throw new StreamCorruptedException("Unexpected handshake reply");
+            }
+            return new MessageChannel(socket, new BinaryReader(in), new BinaryWriter(out), true);
+        } catch (EOFException | SocketException e) {
+            socket.close();
+            return null;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /** Whether this connection uses the binary format rather than Java serialization. */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /** Sends an action and its arguments as one request. */
+    public void send(Object... values) throws IOException {
+        requestId = requestId == Integer.MAX_VALUE ? 1 : requestId + 1;
+        for (Object value : values) {
+            out.write(requestId, value);
+        }
+        out.flush();
+    }
+
+    /** The next reply to the latest request, or the next message the server sent unasked. */
+    public Object receive() throws IOException, ClassNotFoundException {
+        while (true) {
+            Object value = in.readObject();
+            int id = in.requestId();
+            if (id == 0 || id == requestId) {
+                return value;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
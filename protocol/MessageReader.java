@@ -0,0 +1,11 @@
+package protocol;
+
+import java.io.IOException;
+
+/** The values a peer sends, one at a time, in whichever encoding the connection uses. */
+public interface MessageReader {
+    Object readObject() throws IOException, ClassNotFoundException;
+
+    /** Request ID of the value last read; always 0 under Java serialization, which has none. */
+    int requestId();
+}
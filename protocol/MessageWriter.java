@@ -0,0 +1,13 @@
+package protocol;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Sends values to a peer in whichever encoding the connection uses. Values are strings,
+ * Integers, lists of strings and byte arrays. Not thread-safe.
+ */
+public interface MessageWriter extends Flushable {
+    /** Writes value as part of request requestId, which Java serialization drops. */
+    void write(int requestId, Object value) throws IOException;
+}
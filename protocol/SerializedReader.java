@@ -0,0 +1,25 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+
+/** Reads a Java serialization stream, as older clients and servers send. */
+public final class SerializedReader implements MessageReader {
+    private final ObjectInputStream in;
+
+    /** Blocks until the stream header has arrived. */
+    public SerializedReader(InputStream in) throws IOException {
+        this.in = new ObjectInputStream(in);
+    }
+
+    @Override
+    public Object readObject() throws IOException, ClassNotFoundException {
+        return in.readObject();
+    }
+
+    @Override
+    public int requestId() {
+        return 0;
+    }
+}
@@ -0,0 +1,25 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/** Writes a Java serialization stream, as older clients and servers expect. */
+public final class SerializedWriter implements MessageWriter {
+    private final ObjectOutputStream out;
+
+    /** Writes the stream header straight away. */
+    public SerializedWriter(OutputStream out) throws IOException {
+        this.out = new ObjectOutputStream(out);
+    }
+
+    @Override
+    public void write(int requestId, Object value) throws IOException {
+        out.writeObject(value);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
@@ -0,0 +1,139 @@
+package protocol;
+
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The binary wire format shared by client and server, version 2. After the handshake every
+ * value travels as one frame:
+ * <pre>
+ *   byte      type: 1 text, 2 int, 3 text list, 4 bytes
+ *   varint    request ID: the client numbers its requests from 1, replies carry the
+ *             number of the request they answer, and messages the server sends unasked 0
+ *   varint    payload length
+ *   payload   text: UTF-8; int: zigzag varint; text list: varint count, then a varint
+ *             length and UTF-8 bytes per entry; bytes: as they are
+ * </pre>
+ * Varints are unsigned LEB128, seven bits per byte, low bits first.
+ * <p>
+ * Handshake: the server opens every connection with the Java serialization stream header
+ * (0xACED0005), as it always has. A client that speaks this format sends {@link #hello}
+ * with the highest version it knows; the server answers with a hello carrying the version
+ * both will use, and from then on both sides send frames. Anything else from the client
+ * is the start of a Java serialization stream, so older clients keep working. An older
+ * server cannot read a hello and hangs up, and {@link MessageChannel} reconnects with Java
+ * serialization.
+ * <p>
+ * Version 2 frames are the same as version 1's; only the answer to {@code SEND_IMAGE}
+ * changed. Instead of a line per unreachable recipient and {@code IMAGE_SENT}, the server
+ * answers with one text list pairing each recipient with what became of the image:
+ * {@code QUEUED}, {@code BUSY}, {@code EVICTED} or {@code UNREACHABLE}.
+ */
+public final class Wire {
+    public static final int VERSION = 2;
+    /** Bytes in a hello, the same as in the serialization stream header it stands in for. */
+    public static final int HELLO_LENGTH = 4;
+    /** Largest payload a reader accepts; images are the big ones. */
+    public static final int MAX_PAYLOAD = 64 << 20;
+
+    static final int TEXT = 1;
+    static final int INT = 2;
+    static final int TEXT_LIST = 3;
+    static final int BYTES = 4;
+
+    private static final byte[] MAGIC = {'S', 'T', 'G'};
+
+    private Wire() {
+    }
+
+    public static byte[] hello(int version) {
+        if (version < 1 || version > 0xFF) {
+            throw new IllegalArgumentException("Invalid protocol version: " + version);
+        }
+        return new byte[]{MAGIC[0], MAGIC[1], MAGIC[2], (byte) version};
+    }
+
+    /** The version in a hello, or 0 if bytes are something else. */
+    public static int helloVersion(byte[] bytes) {
+        if (bytes.length != HELLO_LENGTH || bytes[0] != MAGIC[0] || bytes[1] != MAGIC[1] || bytes[2] != MAGIC[2]) {
+            return 0;
+        }
+        return bytes[3] & 0xFF;
+    }
+
+    /**
+     * Length, header included, of the frame starting at buf's position, as soon as its
+     * header is there; -1 before that. Leaves buf's position alone.
+     */
+    public static int frameLength(ByteBuffer buf) throws StreamCorruptedException {
+        Header header = header(buf);
+        return header == null ? -1 : header.size + header.length;
+    }
+
+    /**
+     * Header of the frame starting at buf's position, or null until all of it is there.
+     * Leaves buf's position alone.
+     */
+    public static Header header(ByteBuffer buf) throws StreamCorruptedException {
+        ByteBuffer header = buf.duplicate();
+        try {
+            int type = header.get() & 0xFF;
+            int requestId = varint(header);
+            int length = varint(header);
+            checkLength(length);
+            return new Header(type, requestId, length, header.position() - buf.position());
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /** A frame's header, for readers that handle the payload themselves. */
+    public static final class Header {
+        final int type;
+        public final int requestId;
+        /** Payload bytes. */
+        public final int length;
+        /** Bytes of the header itself. */
+        public final int size;
+
+        Header(int type, int requestId, int length, int size) {
+            this.type = type;
+            this.requestId = requestId;
+            this.length = length;
+            this.size = size;
+        }
+
+        /** Whether the payload is a byte array, sent as it is. */
+        public boolean isBytes() {
+            return type == BYTES;
+        }
+    }
+
+    static void checkLength(int length) throws StreamCorruptedException {
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new StreamCorruptedException("Invalid payload length: " + length);
+        }
+    }
+
+    static int varint(ByteBuffer buf) throws StreamCorruptedException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Varint longer than 5 bytes");
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,249 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The actions a client connection can ask for, independent of how the connection is
+ * served: {@link Server}'s thread per connection reads arguments straight from the
+ * socket, {@link NioServer} hands over ones its event loop has already decoded.
+ * Replies go to {@code out} either way.
+ */
+class ActionHandler {
+    /** Where an action's arguments come from. */
+    interface Input {
+        Object readObject() throws IOException, ClassNotFoundException;
+
+        /**
+         * SEND_IMAGE's image: a byte[], or a buffer from {@link SharedImage#allocate} that
+         * the caller takes over. No other argument comes in a pooled buffer.
+         */
+        default Object readImage() throws IOException, ClassNotFoundException {
+            return readObject();
+        }
+    }
+
+    private final Input in;
+    private final ClientOutput out;
+
+    ActionHandler(Input in, ClientOutput out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    /** Objects that follow action on the wire, so a caller can wait until all have arrived. */
+    static int argumentCount(String action) {
+        switch (action) {
+            case "LOGIN":
+            case "REGISTER":
+            case "UPDATE_FRIEND_REQUEST":
+            case "SEND_IMAGE":
+                return 2;
+            case "SEND_FRIEND_REQUEST":
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /** Runs one action of a logged-in connection; userId is the ID it announced. */
+    void dispatch(String action, int userId) throws IOException, SQLException {
+        System.out.println("Received action: " + action);
+        switch (action) {
+            case "SEND_FRIEND_REQUEST":
+                handleSendFriendRequest(userId);
+                break;
+            case "GET_PENDING_REQUESTS":
+                handleGetPendingRequests(userId);
+                break;
+            case "UPDATE_FRIEND_REQUEST":
+                handleUpdateFriendRequest(userId);
+                break;
+            case "GET_FRIENDS":
+                handleGetFriends(userId);
+                break;
+            case "SEND_IMAGE":
+                handleSendImage();
+                break;
+            default:
+                System.out.println("Unknown action: " + action);
+                out.writeObject("UNKNOWN_ACTION");
+        }
+    }
+
+    void handleLogin() throws IOException, SQLException, ClassNotFoundException {
+        System.out.println("Handling login request");
+        String username = (String) in.readObject();
+        String password = (String) in.readObject();
+        System.out.println("Received login credentials: username = " + username);
+        int userId = Server.db.authenticateUser(username, password);
+
+        if (userId != -1) {
+            System.out.println("User authenticated: userId = " + userId);
+            out.writeObject(userId);
+        } else {
+            System.out.println("Authentication failed for user: " + username);
+            out.writeObject("USER_NOT_FOUND");
+        }
+    }
+
+    void handleRegister() throws IOException, SQLException, ClassNotFoundException {
+        System.out.println("Handling register request");
+        String username = (String) in.readObject();
+        String password = (String) in.readObject();
+        System.out.println("Received registration credentials: username = " + username);
+
+        if (handleCheckUsername(username)) {
+            boolean success = Server.db.registerUser(username, password);
+            if (success) {
+                System.out.println("User registered successfully: username = " + username);
+                out.writeObject("SUCCESS");
+            } else {
+                System.out.println("Registration failed, user already exists: username = " + username);
+                out.writeObject("USER_EXISTS");
+            }
+        } else {
+            out.writeObject("USERNAME_NOT_UNIQUE");
+        }
+    }
+
+    private void handleSendFriendRequest(int userId) throws IOException, SQLException {
+        try {
+            System.out.println("Starting handleSendFriendRequest method.");
+            String friendUsername = (String) in.readObject();
+            System.out.println("Received friend request for username: " + friendUsername);
+            int receiverId = Server.db.getUserIdByUsername(friendUsername);
+            System.out.println("Retrieved receiverId: " + receiverId);
+            System.out.println("Sender ID: " + userId);
+
+            if (receiverId != -1) {
+                Server.db.sendFriendRequest(userId, receiverId);
+                out.writeObject("SUCCESS");
+                System.out.println("Friend request sent successfully from userId: " + userId + " to receiverId: " + receiverId);
+            } else {
+                out.writeObject("USER_NOT_FOUND");
+                System.out.println("User not found for username: " + friendUsername);
+            }
+        } catch (ClassNotFoundException e) {
+            System.err.println("ClassNotFoundException: " + e.getMessage());
+            e.printStackTrace();
+        } catch (SQLException e) {
+            System.err.println("SQLException: " + e.getMessage());
+            e.printStackTrace();
+        } catch (IOException e) {
+            System.err.println("IOException: " + e.getMessage());
+            e.printStackTrace();
+            throw e;
+        }
+    }
+
+    private void handleGetPendingRequests(int userId) throws IOException, SQLException {
+        System.out.println("handleGetPendingRequests userid: " + userId);
+        try {
+            List<String> requests = Server.db.getPendingRequests(userId);
+            System.out.println(requests.getClass() );
+            System.out.println(requests);
+            out.writeObject(requests);
+            out.flush();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean handleCheckUsername(String username) throws SQLException {
+        boolean isUnique = !Server.db.checkUsernameExists(username);
+        return isUnique;
+    }
+
+    private void handleUpdateFriendRequest(int userId) throws IOException, SQLException {
+        try {
+            Object requestIdObject = in.readObject();
+            Object statusObject = in.readObject();
+
+            if (requestIdObject instanceof Integer && statusObject instanceof String) {
+                int requestId = (Integer) requestIdObject;
+                String status = (String) statusObject;
+                Server.db.updateFriendRequest(requestId, status);
+                if ("ACCEPTED".equals(status)) {
+                    Server.db.addFriend(userId, requestId);
+                }
+                out.writeObject("SUCCESS");
+            } else {
+                out.writeObject("INVALID_REQUEST_DATA");
+            }
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void handleGetFriends(int userId) throws IOException, SQLException {
+        List<String> friends = Server.db.getFriends(userId);
+        System.out.println("Sending friends list: " + friends); // Log the friends list
+        out.writeObject(friends);
+        out.flush();
+    }
+
+    private void handleSendImage() throws IOException {
+        try {
+            // Read the list of recipients (usernames) and the image bytes
+            Object recipientsObject = in.readObject();
+            Object imageBytesObject = in.readImage();
+
+            // Large images from binary clients arrive in a pooled direct buffer, the rest as a byte[]
+            SharedImage image = imageBytesObject instanceof ByteBuffer ? new SharedImage((ByteBuffer) imageBytesObject)
+                    : imageBytesObject instanceof byte[] ? new SharedImage((byte[]) imageBytesObject) : null;
+            try {
+                if (recipientsObject instanceof List<?> && image != null) {
+                    @SuppressWarnings("unchecked")
+                    List<String> recipients = (List<String>) recipientsObject;
+
+                    System.out.println(recipients);
+                    if (!recipients.isEmpty()) {
+                        // Version 2 clients get what became of the image for every recipient, older ones a line per miss
+                        boolean report = out.version() >= 2;
+                        List<String> deliveries = new ArrayList<>();
+                        for (String recipient : recipients) {
+                            int recipientId = Server.db.getUserIdByUsername(recipient);
+                            ImageQueue session = recipientId == -1 ? null : Server.activeImageClients.get(recipientId);
+                            // Queued for the recipient's own writer, so a slow recipient never holds up the sender
+                            ImageQueue.Delivery delivery = session == null ? ImageQueue.Delivery.UNREACHABLE : session.offer(image);
+                            if (delivery == ImageQueue.Delivery.EVICTED) {
+                                Server.activeImageClients.remove(recipientId, session);
+                            }
+                            System.out.println("Image for " + recipient + ": " + delivery);
+                            if (report) {
+                                deliveries.add(recipient);
+                                deliveries.add(delivery.name());
+                            } else if (delivery != ImageQueue.Delivery.QUEUED) {
+//                                ObjectOutputStream recipientOut = activeClients.get(recipientId);
+//                                recipientOut.writeObject("RECEIVE_IMAGE_ERROR");
+                                out.writeObject("UNREACHABLE_USER");
+                            }
+                        }
+                        out.writeObject(report ? deliveries : "IMAGE_SENT");
+                    } else {
+                        out.writeObject("EMPTY_RECEIVER_LIST");
+                    }
+                } else {
+                    out.writeObject("INVALID_IMAGE_DATA");
+                }
+            } finally {
+                // Whatever the request was, the sender's hold on the image ends here
+                if (image != null) {
+                    image.release();
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Direct buffers kept for reuse in power-of-two sizes from {@link #MIN_SIZE}, so that
+ * relaying images allocates no native memory once the pool is warm. At most maxIdle bytes
+ * wait in the pool; a buffer released beyond that is left to the garbage collector.
+ */
+final class BufferPool {
+    static final int MIN_SIZE = 64 << 10;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+
+    private final Queue<ByteBuffer>[] sizes;
+    private final long maxIdle;
+    private final AtomicLong idle = new AtomicLong();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferPool(int maxSize, long maxIdle) {
+        int classes = sizeClass(maxSize) + 1;
+        this.sizes = new Queue[classes];
+        for (int i = 0; i < classes; i++) {
+            sizes[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.maxIdle = maxIdle;
+    }
+
+    /** A direct buffer with position 0 and limit length; its capacity may be larger. */
+    ByteBuffer acquire(int length) {
+        int sizeClass = sizeClass(length);
+        if (sizeClass >= sizes.length) {
+            throw new IllegalArgumentException("Buffer of " + length + " bytes is larger than the pool's");
+        }
+        ByteBuffer buffer = sizes[sizeClass].poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(MIN_SIZE << sizeClass);
+        } else {
+            idle.addAndGet(-buffer.capacity());
+        }
+        buffer.clear().limit(length);
+        return buffer;
+    }
+
+    /** Takes back a buffer from {@link #acquire}; nobody may use it afterwards. */
+    void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (idle.addAndGet(capacity) > maxIdle) {
+            idle.addAndGet(-capacity);
+            return;
+        }
+        sizes[sizeClass(capacity)].add(buffer);
+    }
+
+    private static int sizeClass(int length) {
+        if (length <= MIN_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_SHIFT;
+    }
+}
@@ -0,0 +1,98 @@
+package server;
+
+import protocol.BinaryWriter;
+import protocol.MessageWriter;
+import protocol.SerializedWriter;
+import protocol.Wire;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * What a connection's replies and relayed images are written to, in the encoding its client
+ * negotiated. Anyone writing a message to it from outside the connection's own handler must
+ * hold writeLock, so an image and a reply cannot interleave. A
+ * ReentrantLock rather than synchronized: a virtual thread blocked in a socket write while
+ * holding a monitor would pin its carrier.
+ */
+final class ClientOutput {
+    /** Where {@link #sendImage} puts a binary client's frames: the socket, or an event loop's outbound queue. */
+    interface BufferSink {
+        /**
+         * Writes buffers after whatever went to the stream before them, keeping image
+         * retained until they are all out.
+         */
+        void write(ByteBuffer[] buffers, SharedImage image) throws IOException;
+
+        /** Runs task once everything written so far is out, which may be before this returns. */
+        void afterWrites(Runnable task);
+    }
+
+    final ReentrantLock writeLock = new ReentrantLock();
+    private final OutputStream out;
+    private final BufferSink sink;
+    private volatile MessageWriter writer;
+    private volatile int version;
+    private int replyTo;
+
+    /** Starts with the Java serialization stream header, which every client waits for. */
+    ClientOutput(OutputStream out, BufferSink sink) throws IOException {
+        this.out = out;
+        this.sink = sink;
+        this.writer = new SerializedWriter(out);
+    }
+
+    /** Answers the client's hello and switches to {@link Wire} frames. */
+    void useBinary(int version) throws IOException {
+        out.write(Wire.hello(version));
+        out.flush();
+        this.version = version;
+        writer = new BinaryWriter(out);
+    }
+
+    /** The {@link Wire} version the client negotiated, 0 for Java serialization. */
+    int version() {
+        return version;
+    }
+
+    /** Sets the request that {@link #writeObject} replies to; the connection's handler only. */
+    void replyTo(int requestId) {
+        this.replyTo = requestId;
+    }
+
+    /** Writes a reply to the request being handled. */
+    void writeObject(Object value) throws IOException {
+        writer.write(replyTo, value);
+    }
+
+    /** Writes value as part of requestId, 0 for a message the client did not ask for. */
+    void send(int requestId, Object value) throws IOException {
+        writer.write(requestId, value);
+    }
+
+    /**
+     * Pushes image to the client as RECEIVE_IMAGE. A binary client gets the shared bytes in
+     * one gathering write, without a copy; a Java serialization client gets the byte[] every
+     * such recipient shares.
+     */
+    void sendImage(SharedImage image) throws IOException {
+        MessageWriter current = writer;
+        if (current instanceof BinaryWriter) {
+            sink.write(image.frames(), image);
+        } else {
+            current.write(0, "RECEIVE_IMAGE");
+            current.write(0, image.array());
+        }
+    }
+
+    void flush() throws IOException {
+        writer.flush();
+    }
+
+    /** Runs task once everything flushed so far has reached the socket; see {@link BufferSink#afterWrites}. */
+    void afterWrites(Runnable task) {
+        sink.afterWrites(task);
+    }
+}
@@ -0,0 +1,231 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An image session's images on their way out, so that relaying to it never waits for its
+ * socket. {@link #offer} answers at once with what became of the image; a writer of the
+ * session's own hands the queued images to its {@link ClientOutput} one at a time.
+ * <p>
+ * The bytes of queued images are bounded by {@link Limits}. Once they reach the high
+ * watermark, offers are refused with {@link Delivery#BUSY} until the writer has brought
+ * them down to the low one. A session that stays over the high watermark for longer than
+ * the eviction timeout is a slow consumer: the next offer closes it.
+ */
+final class ImageQueue {
+    /** What became of an image sent to one recipient, as the sender is told. */
+    enum Delivery {
+        /** Queued for the recipient's session. */
+        QUEUED,
+        /** Refused: the recipient's session is too far behind. */
+        BUSY,
+        /** Refused, and the recipient's session closed for staying too far behind. */
+        EVICTED,
+        /** No such user, or no image session open. */
+        UNREACHABLE
+    }
+
+    /** Watermarks on a session's queued bytes, and how long it may stay over the high one. */
+    static final class Limits {
+        static final Limits DEFAULT = new Limits(16 << 20, 4 << 20, 30_000);
+
+        final long high;
+        final long low;
+        final long evictAfterNanos;
+
+        Limits(long high, long low, long evictAfterMillis) {
+            if (low < 0 || low > high) {
+                throw new IllegalArgumentException("Need 0 <= low <= high watermark: " + low + ", " + high);
+            }
+            if (evictAfterMillis < 0) {
+                throw new IllegalArgumentException("Negative eviction timeout: " + evictAfterMillis);
+            }
+            this.high = high;
+            this.low = low;
+            this.evictAfterNanos = TimeUnit.MILLISECONDS.toNanos(evictAfterMillis);
+        }
+    }
+
+    /** How long a writer thread waits for another image before it ends. */
+    private static final long WRITER_IDLE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final ClientOutput out;
+    private final Closeable connection;
+    private final ThreadFactory writerThreads;
+    private final Limits limits;
+    // A lock rather than synchronized, so a virtual writer thread waits for images without pinning its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition offered = lock.newCondition();
+
+    // Guarded by lock
+    private final Deque<SharedImage> pending = new ArrayDeque<>();
+    private long queuedBytes;
+    private boolean writing;
+    private boolean throttled;
+    private long throttledSince;
+    private boolean closed;
+
+    /**
+     * Queues for out, which connection closes on eviction. A writer thread from
+     * writerThreads drains the queue whenever it has images, since writing to a blocking
+     * socket waits for the client. With no writerThreads, out never blocks ({@link NioServer}),
+     * so images go to it on the offering thread, each as soon as the one before it is written.
+     */
+    ImageQueue(ClientOutput out, Closeable connection, ThreadFactory writerThreads, Limits limits) {
+        this.out = out;
+        this.connection = connection;
+        this.writerThreads = writerThreads;
+        this.limits = limits;
+    }
+
+    /** Queues image, which the queue retains until it is written, unless the session is too far behind. */
+    Delivery offer(SharedImage image) {
+        boolean slow;
+        lock.lock();
+        try {
+            if (closed) {
+                return Delivery.UNREACHABLE;
+            }
+            slow = throttled && System.nanoTime() - throttledSince > limits.evictAfterNanos;
+            if (throttled && !slow) {
+                return Delivery.BUSY;
+            }
+            if (!slow) {
+                image.retain();
+                pending.add(image);
+                queuedBytes += image.length();
+                if (queuedBytes >= limits.high) {
+                    throttled = true;
+                    throttledSince = System.nanoTime();
+                }
+                if (writing) {
+                    offered.signal();
+                    return Delivery.QUEUED;
+                }
+                writing = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (slow) {
+            evict();
+            return Delivery.EVICTED;
+        }
+        if (writerThreads != null) {
+            writerThreads.newThread(this::drain).start();
+        } else {
+            writeNext();
+        }
+        return Delivery.QUEUED;
+    }
+
+    /** Drops the queued images; the one being written is released once its write ends. */
+    void close() {
+        List<SharedImage> dropped;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            dropped = new ArrayList<>(pending);
+            pending.clear();
+            offered.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (SharedImage image : dropped) {
+            image.release();
+        }
+    }
+
+    private void evict() {
+        close();
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+
+    // Writer thread: lingers once the queue is empty, so a stream of images does not start a thread each
+    private void drain() {
+        SharedImage image;
+        while ((image = next(WRITER_IDLE_NANOS)) != null && write(image)) {
+            // each image is written by the time write returns
+        }
+    }
+
+    // Without writer threads: hands over the next image, if any, once the one before is written
+    private void writeNext() {
+        SharedImage image = next(0);
+        if (image != null) {
+            write(image);
+        }
+    }
+
+    // The next image to write, waiting up to idleNanos for one; null ends the writer
+    private SharedImage next(long idleNanos) {
+        lock.lock();
+        try {
+            while (!closed && pending.isEmpty() && idleNanos > 0) {
+                idleNanos = offered.awaitNanos(idleNanos);
+            }
+            SharedImage image = closed ? null : pending.poll();
+            if (image == null) {
+                writing = false;
+            }
+            return image;
+        } catch (InterruptedException e) {
+            writing = false;
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // False if the session is gone
+    private boolean write(SharedImage image) {
+        out.writeLock.lock();
+        try {
+            out.sendImage(image);
+            out.flush();
+            out.afterWrites(() -> {
+                written(image);
+                if (writerThreads == null) {
+                    writeNext();
+                }
+            });
+            return true;
+        } catch (IOException e) {
+            written(image);
+            evict();
+            return false;
+        } finally {
+            out.writeLock.unlock();
+        }
+    }
+
+    private void written(SharedImage image) {
+        lock.lock();
+        try {
+            queuedBytes -= image.length();
+            if (throttled && queuedBytes <= limits.low) {
+                throttled = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        image.release();
+    }
+}
@@ -0,0 +1,689 @@
+package server;
+
+import protocol.BinaryReader;
+import protocol.MessageReader;
+import protocol.SerializedReader;
+import protocol.Wire;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking server mode: a few event-loop threads, each with its own selector, serve
+ * every connection, and a fixed worker pool runs the actions, which block on JDBC.
+ * <p>
+ * A connection's first four bytes pick its encoding, as in the threaded mode. Binary
+ * {@link Wire} frames carry their length, so a frame is decoded once its header says it
+ * is all there. Older clients speak Java serialization over one ObjectOutputStream per
+ * socket, so each such connection keeps one ObjectInputStream for its whole life, fed
+ * from the connection's read buffer; {@link SerializationScanner} first checks that a
+ * complete object has arrived. Either way a read never waits for the network.
+ * <p>
+ * Decoded objects queue up per connection until an action and all its arguments are
+ * there ({@link ActionHandler#argumentCount}); the action then runs on a worker with the
+ * same {@link ActionHandler} as the threaded mode. A connection runs one action at a time,
+ * in arrival order.
+ * <p>
+ * Replies and relayed images go through the connection's {@link ClientOutput} into an
+ * outbound queue of buffers, which its event loop writes as the socket accepts them,
+ * several at a time. An image from a binary sender is read once, into a pooled direct
+ * buffer ({@link SharedImage}), and every binary recipient's queue holds a view of that
+ * same buffer rather than a copy. The event loop is also each image session's writer: its
+ * {@link ImageQueue} hands over the next image once the loop has written the one before.
+ * An idle connection costs a selection key, a small read buffer and its reader and writer
+ * instead of a thread.
+ */
+final class NioServer {
+    /** Largest single object a client may send; images are the big ones. */
+    static final int MAX_FRAME = 64 << 20;
+    private static final int INITIAL_BUFFER = 1024;
+    private static final int SHRINK_ABOVE = 64 << 10;
+    /** Pending connections the kernel queues while a loop is busy; the default of 50 drops reconnect storms. */
+    private static final int BACKLOG = 1024;
+    /** Outbound buffers handed to one gathering write. */
+    private static final int GATHER = 16;
+
+    private final int port;
+    private final EventLoop[] loops;
+    private final ExecutorService workers;
+    private int nextLoop;
+
+    NioServer(int port, int loopCount, int workerCount) throws IOException {
+        this.port = port;
+        this.loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop("nio-loop-" + i);
+        }
+        this.workers = Executors.newFixedThreadPool(workerCount);
+    }
+
+    /** Accepts on the calling thread's loop; the other loops get threads of their own. */
+    void run() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port), BACKLOG);
+            server.configureBlocking(false);
+            server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+            for (int i = 1; i < loops.length; i++) {
+                Thread thread = new Thread(loops[i], loops[i].name);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            System.out.println("Server started on port " + port + " (NIO, " + loops.length + " event loops)");
+            loops[0].run();
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            EventLoop loop = loops[nextLoop++ % loops.length];
+            SocketChannel accepted = channel;
+            loop.execute(() -> loop.adopt(accepted));
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        final String name;
+        final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile Thread thread;
+
+        EventLoop(String name) throws IOException {
+            this.name = name;
+            this.selector = Selector.open();
+        }
+
+        /** Runs task on this loop's thread, soon. */
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        void adopt(SocketChannel channel) {
+            try {
+                Connection connection = new Connection(this, channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.flush(); // the stream header, which clients block on
+            } catch (IOException e) {
+                System.err.println("IOException: Error in communication.");
+                closeQuietly(channel);
+            }
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while (selector.isOpen()) {
+                try {
+                    // Tasks queued from this thread, e.g. adopting a connection it accepted, sent no wakeup
+                    if (tasks.isEmpty()) {
+                        selector.select();
+                    } else {
+                        selector.selectNow();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    handle(key);
+                }
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            if (key.attachment() == null) {
+                try {
+                    accept((ServerSocketChannel) key.channel());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                System.err.println(e.getClass().getSimpleName() + ": Error in communication.");
+                connection.close();
+            }
+        }
+    }
+
+    /** One client socket: its buffers, its object streams, and the actions it has queued. */
+    private final class Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SerializationScanner scanner = new SerializationScanner();
+        private final FrameInput frame = new FrameInput();
+        // Buffers to write, the SharedImage behind each relayed image right after its buffers, to
+        // release, and Runnables to run once everything before them is written
+        private final Queue<Object> outbound = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer[] gather = new ByteBuffer[GATHER];
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private final ClientOutput out;
+        private final ImageQueue images;
+        private SelectionKey key;
+        private ByteBuffer inbound = ByteBuffer.allocate(INITIAL_BUFFER);
+        private int needed;
+        private MessageReader in;
+        private boolean binary;
+        // A large byte array being read straight into its pooled buffer, and its request
+        private ByteBuffer bulk;
+        private int bulkRequestId;
+        // Objects read but not yet queued; kept here so that a connection closed on a bad frame releases them
+        private final List<Inbound> decoded = new ArrayList<>();
+
+        // Guarded by this: decoded objects waiting for their action to run
+        private final Deque<Inbound> pending = new ArrayDeque<>();
+        private boolean busy;
+        private boolean registered;
+        private int userId = -1;
+        private volatile boolean closeAfterFlush;
+        private volatile boolean closed;
+
+        Connection(EventLoop loop, SocketChannel channel) throws IOException {
+            this.loop = loop;
+            this.channel = channel;
+            ChannelOutput output = new ChannelOutput();
+            this.out = new ClientOutput(output, output);
+            this.images = new ImageQueue(out, this::close, null, Server.imageLimits);
+        }
+
+        // Event loop thread only
+        void read() throws IOException, ClassNotFoundException {
+            if (bulk != null) {
+                readBulk();
+                return;
+            }
+            if (!inbound.hasRemaining()) {
+                grow(Math.max(inbound.capacity() * 2, needed));
+            }
+            if (channel.read(inbound) < 0) {
+                close();
+                return;
+            }
+            inbound.flip();
+            while (true) {
+                if (in == null) {
+                    if (inbound.remaining() < Wire.HELLO_LENGTH) {
+                        break;
+                    }
+                    byte[] header = new byte[Wire.HELLO_LENGTH];
+                    inbound.get(header);
+                    int version = Wire.helloVersion(header);
+                    if (version > 0) {
+                        binary = true;
+                        out.useBinary(Math.min(version, Wire.VERSION));
+                        in = new BinaryReader(frame);
+                    } else {
+                        frame.set(header);
+                        in = new SerializedReader(frame);
+                    }
+                    continue;
+                }
+                if (inbound.remaining() < needed) {
+                    break;
+                }
+                Wire.Header header = binary ? Wire.header(inbound) : null;
+                if (header != null && header.isBytes() && header.length >= SharedImage.BULK_THRESHOLD) {
+                    needed = 0;
+                    inbound.position(inbound.position() + header.size);
+                    ByteBuffer payload = SharedImage.allocate(header.length);
+                    int buffered = Math.min(inbound.remaining(), header.length);
+                    payload.put(inbound.slice(inbound.position(), buffered));
+                    inbound.position(inbound.position() + buffered);
+                    if (payload.hasRemaining()) {
+                        bulk = payload;
+                        bulkRequestId = header.requestId;
+                        break;
+                    }
+                    decoded.add(new Inbound(header.requestId, payload.flip()));
+                    continue;
+                }
+                int length = nextLength();
+                if (length < 0) {
+                    if (needed > MAX_FRAME) {
+                        throw new StreamCorruptedException("Object of over " + MAX_FRAME + " bytes");
+                    }
+                    break;
+                }
+                needed = 0;
+                byte[] bytes = new byte[length];
+                inbound.get(bytes);
+                frame.set(bytes);
+                Object value = in.readObject();
+                decoded.add(new Inbound(in.requestId(), value));
+            }
+            inbound.compact();
+            if (inbound.position() == 0 && inbound.capacity() > SHRINK_ABOVE) {
+                inbound = ByteBuffer.allocate(INITIAL_BUFFER); // don't keep an image-sized buffer per idle client
+            } else if (needed > inbound.capacity()) {
+                grow(needed);
+            }
+            if (!decoded.isEmpty()) {
+                boolean queued = queue(decoded);
+                decoded.clear();
+                if (queued) {
+                    process();
+                }
+            }
+        }
+
+        // The rest of a large byte array, read from the socket into its own buffer without going through inbound
+        private void readBulk() throws IOException {
+            if (channel.read(bulk) < 0) {
+                close();
+                return;
+            }
+            if (bulk.hasRemaining()) {
+                return;
+            }
+            Inbound image = new Inbound(bulkRequestId, bulk.flip());
+            bulk = null;
+            if (queue(List.of(image))) {
+                process();
+            }
+        }
+
+        // False if the connection closed meanwhile, its pending objects already discarded
+        private synchronized boolean queue(List<Inbound> objects) {
+            if (closed) {
+                discard(objects);
+                return false;
+            }
+            pending.addAll(objects);
+            return true;
+        }
+
+        // Large byte arrays are read into pooled buffers before it is known what they are for
+        private void discard(Collection<Inbound> dropped) {
+            for (Inbound object : dropped) {
+                SharedImage.discard(object.value);
+            }
+        }
+
+        // Length of the complete object or frame at the head of inbound, or -1 with needed set
+        private int nextLength() throws IOException {
+            if (!binary) {
+                int length = scanner.scan(inbound);
+                if (length < 0) {
+                    needed = scanner.needed();
+                }
+                return length;
+            }
+            int length = Wire.frameLength(inbound);
+            if (length < 0 || length > inbound.remaining()) {
+                needed = length < 0 ? inbound.remaining() + 1 : length;
+                return -1;
+            }
+            return length;
+        }
+
+        private void grow(int capacity) {
+            ByteBuffer larger = ByteBuffer.allocate(capacity);
+            inbound.flip();
+            larger.put(inbound);
+            inbound = larger;
+        }
+
+        /** Starts the next action if one is complete and none is running; any thread. */
+        synchronized void process() {
+            while (!busy && !closed && !pending.isEmpty()) {
+                Object head = pending.peekFirst().value;
+                int requestId = pending.peekFirst().requestId;
+                if (!registered && ("LOGIN".equals(head) || "REGISTER".equals(head))) {
+                    if (pending.size() < 3) {
+                        return;
+                    }
+                    pending.pollFirst();
+                    submit(requestId, handler -> {
+                        if ("LOGIN".equals(head)) {
+                            handler.handleLogin();
+                        } else {
+                            handler.handleRegister();
+                        }
+                        closeAfterFlush = true; // the threaded mode closes these connections too
+                    }, takeArguments(2));
+                } else if (!registered) {
+                    pending.pollFirst();
+                    registered = true;
+                    userId = Server.register(head, out, images); // Store the output stream for the logged-in user
+                    SharedImage.discard(head);
+                } else if (head instanceof String) {
+                    String action = (String) head;
+                    int count = ActionHandler.argumentCount(action);
+                    if (pending.size() < count + 1) {
+                        return;
+                    }
+                    pending.pollFirst();
+                    submit(requestId, handler -> handler.dispatch(action, userId), takeArguments(count));
+                } else {
+                    pending.pollFirst();
+                    SharedImage.discard(head);
+                    out.writeLock.lock();
+                    try {
+                        out.replyTo(requestId);
+                        out.writeObject("INVALID_ACTION_TYPE");
+                    } catch (IOException e) {
+                        close();
+                    } finally {
+                        out.writeLock.unlock();
+                    }
+                }
+            }
+        }
+
+        private Arguments takeArguments(int count) {
+            Arguments arguments = new Arguments();
+            for (int i = 0; i < count; i++) {
+                arguments.values.add(pending.pollFirst().value);
+            }
+            return arguments;
+        }
+
+        private void submit(int requestId, Action action, Arguments arguments) {
+            busy = true;
+            workers.execute(() -> {
+                try {
+                    out.replyTo(requestId);
+                    action.run(new ActionHandler(arguments, out));
+                } catch (IOException | ClassNotFoundException | SQLException | RuntimeException e) {
+                    System.err.println(e.getClass().getSimpleName() + ": Error in handling action.");
+                    close();
+                } finally {
+                    arguments.discardUnread();
+                    synchronized (this) {
+                        busy = false;
+                    }
+                }
+                if (closeAfterFlush) {
+                    scheduleFlush();
+                } else {
+                    process();
+                }
+            });
+        }
+
+        void enqueue(byte[] bytes, int off, int len) {
+            outbound.add(ByteBuffer.wrap(Arrays.copyOfRange(bytes, off, off + len)));
+            scheduleFlush();
+        }
+
+        private void scheduleFlush() {
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(() -> {
+                    try {
+                        flush();
+                    } catch (IOException e) {
+                        close();
+                    }
+                });
+            }
+        }
+
+        // Event loop thread only: writes what the socket takes and waits for OP_WRITE for the rest
+        void flush() throws IOException {
+            flushScheduled.set(false);
+            if (closed || key == null) {
+                return;
+            }
+            Object head;
+            while ((head = outbound.peek()) != null) {
+                if (head instanceof SharedImage) {
+                    outbound.poll();
+                    ((SharedImage) head).release(); // everything of it before here is written
+                    continue;
+                }
+                if (head instanceof Runnable) {
+                    outbound.poll();
+                    ((Runnable) head).run();
+                    continue;
+                }
+                int count = 0;
+                for (Object next : outbound) {
+                    if (count == GATHER || !(next instanceof ByteBuffer)) {
+                        break;
+                    }
+                    gather[count++] = (ByteBuffer) next;
+                }
+                channel.write(gather, 0, count);
+                boolean blocked = false;
+                for (int i = 0; i < count && !blocked; i++) {
+                    blocked = gather[i].hasRemaining();
+                    if (!blocked) {
+                        outbound.poll();
+                    }
+                }
+                Arrays.fill(gather, 0, count, null);
+                if (blocked) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closeAfterFlush) {
+                close();
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // Remove the client from active clients list on disconnect, unless it has reconnected since
+            Server.activeClients.remove(userId, out);
+            Server.activeImageClients.remove(userId, images);
+            images.close();
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+            // On the loop, so no write is still reading a buffer that goes back to the pool
+            loop.execute(this::discardOutbound);
+        }
+
+        // Event loop thread only, once closed: releases what will never be written, or read
+        private void discardOutbound() {
+            if (bulk != null) {
+                SharedImage.discard(bulk);
+                bulk = null;
+            }
+            discard(decoded);
+            decoded.clear();
+            synchronized (this) {
+                discard(pending);
+                pending.clear();
+            }
+            Object next;
+            while ((next = outbound.poll()) != null) {
+                if (next instanceof SharedImage) {
+                    ((SharedImage) next).release();
+                } else if (next instanceof Runnable) {
+                    ((Runnable) next).run();
+                }
+            }
+        }
+
+        /**
+         * The connection's ClientOutput writes here; every chunk it writes becomes an outbound
+         * buffer, and a relayed image's buffers go on the queue as they are.
+         */
+        private final class ChannelOutput extends OutputStream implements ClientOutput.BufferSink {
+            @Override
+            public void write(int b) {
+                enqueue(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (closed) {
+                    throw new IOException("Connection closed");
+                }
+                enqueue(b, off, len);
+            }
+
+            // Views of the one copy every recipient shares
+            @Override
+            public void write(ByteBuffer[] buffers, SharedImage image) throws IOException {
+                if (closed) {
+                    throw new IOException("Connection closed");
+                }
+                image.retain();
+                outbound.addAll(Arrays.asList(buffers));
+                append(image);
+            }
+
+            @Override
+            public void afterWrites(Runnable task) {
+                append(task);
+            }
+
+            private void append(Object marker) {
+                outbound.add(marker);
+                if (closed) {
+                    loop.execute(Connection.this::discardOutbound); // closed meanwhile; the close's discard may have run
+                } else {
+                    scheduleFlush();
+                }
+            }
+        }
+    }
+
+    /** A decoded object and the request it belongs to. */
+    private static final class Inbound {
+        final int requestId;
+        final Object value;
+
+        Inbound(int requestId, Object value) {
+            this.requestId = requestId;
+            this.value = value;
+        }
+    }
+
+    /**
+     * An action's arguments, decoded before the action was known. A large byte array is in a
+     * pooled buffer by then, which only SEND_IMAGE's image keeps; any other gets the handler a
+     * byte[] copy, and ones the handler never reads go back to the pool.
+     */
+    private static final class Arguments implements ActionHandler.Input {
+        final Queue<Object> values = new ArrayDeque<>();
+
+        @Override
+        public Object readObject() {
+            Object value = values.remove();
+            if (value instanceof ByteBuffer) {
+                ByteBuffer buffer = (ByteBuffer) value;
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                SharedImage.discard(buffer);
+                return bytes;
+            }
+            return value;
+        }
+
+        @Override
+        public Object readImage() {
+            return values.remove();
+        }
+
+        void discardUnread() {
+            Object value;
+            while ((value = values.poll()) != null) {
+                SharedImage.discard(value);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Action {
+        void run(ActionHandler handler) throws IOException, ClassNotFoundException, SQLException;
+    }
+
+    /**
+     * What a connection's reader reads from: the bytes of exactly one complete object or
+     * frame at a time. Running dry means the scanner and the stream disagree, so it reports
+     * end of stream rather than blocking.
+     */
+    private static final class FrameInput extends InputStream {
+        private byte[] bytes = new byte[0];
+        private int pos;
+
+        void set(byte[] bytes) {
+            this.bytes = bytes;
+            this.pos = 0;
+        }
+
+        @Override
+        public int read() {
+            return pos < bytes.length ? bytes[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int n = Math.min(len, bytes.length - pos);
+            if (n <= 0) {
+                return -1;
+            }
+            System.arraycopy(bytes, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return bytes.length - pos;
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+}
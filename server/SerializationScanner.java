@@ -0,0 +1,337 @@
+package server;
+
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds where the next top-level object of a Java serialization stream ends, without
+ * deserializing it, so an event loop can hand the connection's ObjectInputStream only
+ * complete objects and its readObject never blocks.
+ * <p>
+ * It walks the stream grammar of the Java Object Serialization Specification, chapter 6,
+ * and keeps a handle table like ObjectInputStream's, holding the layout of every class
+ * descriptor so later references to it can be followed. One scanner belongs to one
+ * stream: the bytes it accepts must be exactly the bytes the stream then reads. Handles
+ * added while scanning an incomplete object are dropped again, so the same object can be
+ * rescanned once more bytes have arrived. Externalizable classes written with protocol 1
+ * carry no length information and are rejected; ObjectOutputStream has written protocol 2
+ * since JDK 1.2.
+ */
+final class SerializationScanner implements ObjectStreamConstants {
+    private static final Incomplete INCOMPLETE = new Incomplete();
+    /** Nesting limit, so a hostile stream cannot overflow the event loop's stack. */
+    private static final int MAX_DEPTH = 1000;
+
+    private final List<ClassDesc> handles = new ArrayList<>();
+    private ByteBuffer buf;
+    private int pos;
+    private int needed;
+    private int depth;
+
+    /**
+     * Length of the next complete top-level object (with any resets before it) at the
+     * buffer's position, or -1 if its bytes have not all arrived; the buffer is not moved.
+     */
+    int scan(ByteBuffer data) throws IOException {
+        buf = data;
+        pos = data.position();
+        depth = 0;
+        int handleCount = handles.size();
+        try {
+            while (peek() == TC_RESET) {
+                pos++;
+                handles.clear();
+                handleCount = 0;
+            }
+            content();
+            return pos - data.position();
+        } catch (Incomplete e) {
+            // Roll back what this partial object registered; it will be scanned again
+            handles.subList(handleCount, handles.size()).clear();
+            return -1;
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new StreamCorruptedException("Malformed serialization stream: " + e);
+        } finally {
+            buf = null;
+        }
+    }
+
+    /** After {@link #scan} returned -1: total buffered bytes, counted from its position, worth scanning again at. */
+    int needed() {
+        return needed;
+    }
+
+    private void content() throws IOException {
+        int tc = u1();
+        switch (tc) {
+            case TC_BLOCKDATA:
+                skip(u1());
+                break;
+            case TC_BLOCKDATALONG:
+                skip(u4());
+                break;
+            default:
+                object(tc);
+        }
+    }
+
+    private void object(int tc) throws IOException {
+        if (++depth > MAX_DEPTH) {
+            throw new StreamCorruptedException("Objects nested deeper than " + MAX_DEPTH);
+        }
+        try {
+            objectBody(tc);
+        } finally {
+            depth--;
+        }
+    }
+
+    private void objectBody(int tc) throws IOException {
+        switch (tc) {
+            case TC_NULL:
+                break;
+            case TC_REFERENCE:
+                u4();
+                break;
+            case TC_STRING:
+                handles.add(null);
+                skip(u2());
+                break;
+            case TC_LONGSTRING:
+                handles.add(null);
+                skip(u8());
+                break;
+            case TC_CLASSDESC:
+            case TC_PROXYCLASSDESC:
+                classDesc(tc);
+                break;
+            case TC_CLASS:
+                classDesc(u1());
+                handles.add(null);
+                break;
+            case TC_ARRAY:
+                array();
+                break;
+            case TC_ENUM:
+                classDesc(u1());
+                handles.add(null);
+                object(u1());
+                break;
+            case TC_OBJECT:
+                newObject();
+                break;
+            case TC_RESET:
+                handles.clear();
+                object(u1());
+                break;
+            default:
+                throw new StreamCorruptedException(String.format("Unsupported type code 0x%02X", tc));
+        }
+    }
+
+    // classDesc: newClassDesc, proxy class desc, null or a reference to one
+    private ClassDesc classDesc(int tc) throws IOException {
+        switch (tc) {
+            case TC_NULL:
+                return null;
+            case TC_REFERENCE:
+                int handle = u4() - baseWireHandle;
+                if (handle < 0 || handle >= handles.size() || handles.get(handle) == null) {
+                    throw new StreamCorruptedException("Reference to unknown class descriptor " + handle);
+                }
+                return handles.get(handle);
+            case TC_CLASSDESC: {
+                ClassDesc desc = new ClassDesc(utf());
+                skip(8); // serialVersionUID
+                handles.add(desc);
+                desc.flags = u1();
+                int count = u2();
+                desc.fieldTypes = new char[count];
+                for (int i = 0; i < count; i++) {
+                    char type = (char) u1();
+                    desc.fieldTypes[i] = type;
+                    skip(u2()); // field name
+                    if (type == 'L' || type == '[') {
+                        object(u1()); // field class name, a string or a reference to one
+                    }
+                }
+                annotation();
+                desc.superDesc = classDesc(u1());
+                return desc;
+            }
+            case TC_PROXYCLASSDESC: {
+                ClassDesc desc = new ClassDesc("$Proxy");
+                handles.add(desc);
+                desc.flags = SC_SERIALIZABLE;
+                desc.fieldTypes = new char[0];
+                int interfaces = u4();
+                for (int i = 0; i < interfaces; i++) {
+                    skip(u2());
+                }
+                annotation();
+                desc.superDesc = classDesc(u1());
+                return desc;
+            }
+            default:
+                throw new StreamCorruptedException(String.format("Expected a class descriptor, got 0x%02X", tc));
+        }
+    }
+
+    private void newObject() throws IOException {
+        ClassDesc desc = classDesc(u1());
+        if (desc == null) {
+            throw new StreamCorruptedException("Object without a class descriptor");
+        }
+        handles.add(null);
+        classData(desc);
+    }
+
+    // Superclass data comes first
+    private void classData(ClassDesc desc) throws IOException {
+        if (desc.superDesc != null) {
+            classData(desc.superDesc);
+        }
+        if ((desc.flags & SC_EXTERNALIZABLE) != 0) {
+            if ((desc.flags & SC_BLOCK_DATA) == 0) {
+                throw new StreamCorruptedException("Externalizable " + desc.name + " written with protocol 1");
+            }
+            annotation();
+        } else if ((desc.flags & SC_SERIALIZABLE) != 0) {
+            for (char type : desc.fieldTypes) {
+                if (type == 'L' || type == '[') {
+                    object(u1());
+                } else {
+                    skip(primitiveSize(type));
+                }
+            }
+            if ((desc.flags & SC_WRITE_METHOD) != 0) {
+                annotation();
+            }
+        }
+    }
+
+    private void array() throws IOException {
+        ClassDesc desc = classDesc(u1());
+        if (desc == null || desc.name.length() < 2 || desc.name.charAt(0) != '[') {
+            throw new StreamCorruptedException("Array without an array class descriptor");
+        }
+        handles.add(null);
+        int length = u4();
+        if (length < 0) {
+            throw new StreamCorruptedException("Negative array length " + length);
+        }
+        char component = desc.name.charAt(1);
+        if (component == 'L' || component == '[') {
+            for (int i = 0; i < length; i++) {
+                object(u1());
+            }
+        } else {
+            skip((long) length * primitiveSize(component));
+        }
+    }
+
+    // Block data and objects up to TC_ENDBLOCKDATA
+    private void annotation() throws IOException {
+        while (peek() != TC_ENDBLOCKDATA) {
+            content();
+        }
+        pos++;
+    }
+
+    private static int primitiveSize(char type) throws StreamCorruptedException {
+        switch (type) {
+            case 'B':
+            case 'Z':
+                return 1;
+            case 'C':
+            case 'S':
+                return 2;
+            case 'I':
+            case 'F':
+                return 4;
+            case 'J':
+            case 'D':
+                return 8;
+            default:
+                throw new StreamCorruptedException("Unknown field type " + type);
+        }
+    }
+
+    private String utf() {
+        int length = u2();
+        need(length);
+        byte[] bytes = new byte[length];
+        buf.get(pos, bytes);
+        pos += length;
+        return new String(bytes, StandardCharsets.UTF_8); // class names: modified UTF-8 only differs outside ASCII
+    }
+
+    private int peek() {
+        need(1);
+        return buf.get(pos) & 0xFF;
+    }
+
+    private int u1() {
+        need(1);
+        return buf.get(pos++) & 0xFF;
+    }
+
+    private int u2() {
+        need(2);
+        int v = buf.getShort(pos) & 0xFFFF;
+        pos += 2;
+        return v;
+    }
+
+    private int u4() {
+        need(4);
+        int v = buf.getInt(pos);
+        pos += 4;
+        return v;
+    }
+
+    private long u8() {
+        need(8);
+        long v = buf.getLong(pos);
+        pos += 8;
+        return v;
+    }
+
+    private void skip(long n) throws StreamCorruptedException {
+        if (n < 0) {
+            throw new StreamCorruptedException("Negative length " + n);
+        }
+        need(n);
+        pos += (int) n;
+    }
+
+    private void need(long n) {
+        if (pos + n > buf.limit()) {
+            needed = (int) Math.min(Integer.MAX_VALUE, pos + n - buf.position());
+            throw INCOMPLETE;
+        }
+    }
+
+    private static final class ClassDesc {
+        final String name;
+        int flags;
+        char[] fieldTypes;
+        ClassDesc superDesc;
+
+        ClassDesc(String name) {
+            this.name = name;
+        }
+    }
+
+    // Thrown on running out of bytes; shared and without a stack trace, as it is routine
+    private static final class Incomplete extends RuntimeException {
+        Incomplete() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -1,37 +1,224 @@
 package server;
 
+import protocol.BinaryReader;
+import protocol.MessageReader;
+import protocol.SerializedReader;
+import protocol.Wire;
+
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Chat and image relay server.
+ * <pre>
+ *   java server.Server [--virtual | --nio [--loops N] [--workers N]]
+ *                      [--high-watermark MB] [--low-watermark MB] [--evict-after SECONDS]
+ * </pre>
+ * By default every connection gets its own platform thread blocking on its socket.
+ * {@code --virtual} runs the same blocking handler on a virtual thread per connection,
+ * so idle users cost a few KB of heap instead of a thread stack each. {@code --nio} serves
+ * all connections from a few selector threads instead ({@link NioServer}).
+ * <p>
+ * Images relayed to an image session wait in its {@link ImageQueue}; the last three
+ * options set its {@link ImageQueue.Limits}.
+ * <p>
+ * Each client chooses its encoding with its first bytes: a {@link Wire} hello for binary
+ * frames, or a Java serialization stream header as older clients send.
+ */
 public class Server {
-    private static final int PORT = 12345;
-    private static DBConnection db;
-    private static Map<Integer, ObjectOutputStream> activeClients = new HashMap<>(); // Map to hold connected clients' output streams
-    private static Map<Integer, ObjectOutputStream> activeImageClients = new HashMap<>();
+    static final int PORT = 12345;
+    static DBConnection db;
+    // Shared by every connection thread, or by the NIO loops and workers
+    static Map<Integer, ClientOutput> activeClients = new ConcurrentHashMap<>(); // Map to hold connected clients' output streams
+    static Map<Integer, ImageQueue> activeImageClients = new ConcurrentHashMap<>();
+    static ImageQueue.Limits imageLimits = ImageQueue.Limits.DEFAULT;
 //    private static int userId;
 
-    public static void main(String[] args) {
-        db = new DBConnection();
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Server started on port " + PORT);
-            while (true) {
-                new ClientHandler(serverSocket.accept()).start();
+    public static void main(String[] args) throws IOException {
+        boolean nio = false;
+        boolean virtual = false;
+        int loops = Math.min(4, Runtime.getRuntime().availableProcessors());
+        int workers = 16;
+        long highWatermark = ImageQueue.Limits.DEFAULT.high;
+        long lowWatermark = ImageQueue.Limits.DEFAULT.low;
+        long evictAfterMillis = TimeUnit.NANOSECONDS.toMillis(ImageQueue.Limits.DEFAULT.evictAfterNanos);
+        for (int i = 0; i < args.length; i++) {
+            if ("--nio".equals(args[i])) {
+                nio = true;
+            } else if ("--virtual".equals(args[i])) {
+                virtual = true;
+            } else if ("--loops".equals(args[i]) && i + 1 < args.length) {
+                loops = Integer.parseInt(args[++i]);
+            } else if ("--workers".equals(args[i]) && i + 1 < args.length) {
+                workers = Integer.parseInt(args[++i]);
+            } else if ("--high-watermark".equals(args[i]) && i + 1 < args.length) {
+                highWatermark = Long.parseLong(args[++i]) << 20;
+            } else if ("--low-watermark".equals(args[i]) && i + 1 < args.length) {
+                lowWatermark = Long.parseLong(args[++i]) << 20;
+            } else if ("--evict-after".equals(args[i]) && i + 1 < args.length) {
+                evictAfterMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(args[++i]));
+            } else {
+                System.err.println("Usage: Server [--virtual | --nio [--loops N] [--workers N]]"
+                        + " [--high-watermark MB] [--low-watermark MB] [--evict-after SECONDS]");
+                return;
             }
+        }
+        if (nio && virtual) {
+            System.err.println("--virtual and --nio are alternatives");
+            return;
+        }
+        imageLimits = new ImageQueue.Limits(highWatermark, lowWatermark, evictAfterMillis);
+
+        db = new DBConnection();
+        if (nio) {
+            new NioServer(PORT, loops, workers).run();
+            return;
+        }
+        // Opened through a channel so accepted sockets have one too, for relaying images without copies
+        try (ServerSocket serverSocket = ServerSocketChannel.open().bind(new InetSocketAddress(PORT)).socket()) {
+            System.out.println("Server started on port " + PORT + (virtual ? " (virtual threads)" : ""));
+            serve(serverSocket, virtual);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private static class ClientHandler extends Thread {
+    /**
+     * Accepts connections until serverSocket is closed, each handled on a thread of its own,
+     * virtual or platform. The executor owns those threads: once accepting stops, this
+     * returns only after every connection has ended.
+     */
+    static void serve(ServerSocket serverSocket, boolean virtual) throws IOException {
+        ThreadFactory threads = virtual ? Thread.ofVirtual().name("client-", 0).factory()
+                : Thread.ofPlatform().name("client-", 0).factory();
+        try (ExecutorService connections = Executors.newThreadPerTaskExecutor(threads)) {
+            while (true) {
+                connections.execute(new ClientHandler(serverSocket.accept()));
+            }
+        }
+    }
+
+    /**
+     * Records a {@code UserId: n} announcement, the first message of a logged-in connection,
+     * against out, or an {@code ImageUserId: n} one against images. Returns the user ID, -1
+     * for anything else.
+     */
+    static int register(Object initialActionObject, ClientOutput out, ImageQueue images) {
+        int userId = -1;
+        if (initialActionObject instanceof String) {
+
+            String value = (String) initialActionObject;
+
+            String[] data = value.split(" ");
+
+            if (data.length == 2){
+                if (data[0].equals("UserId:")) {
+                    userId = Integer.parseInt(data[1]);
+                    activeClients.put(userId, out);
+
+                    if (userId == -1) {
+                        throw new RuntimeException("Invalid user");
+                    }
+
+                }
+                if (data[0].equals("ImageUserId:")) {
+                    userId = Integer.parseInt(data[1]);
+                    activeImageClients.put(userId, images);
+                }
+            }
+        }
+        return userId;
+    }
+
+    /**
+     * Reads the client's first bytes: a {@link Wire} hello switches out to binary frames,
+     * anything else starts a Java serialization stream. If the socket has a channel, binary
+     * clients' large images are read from it straight into pooled direct buffers.
+     */
+    static MessageReader negotiate(Socket socket, ClientOutput out) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(socket.getInputStream(), Wire.HELLO_LENGTH);
+        byte[] first = in.readNBytes(Wire.HELLO_LENGTH);
+        int version = Wire.helloVersion(first);
+        if (version > 0) {
+            out.useBinary(Math.min(version, Wire.VERSION));
+            SocketChannel channel = socket.getChannel();
+            if (channel == null) {
+                // Images on the heap: Channels.newChannel reads under a monitor, which pins a virtual thread
+                return new BinaryReader(new BufferedInputStream(in));
+            }
+            return new BinaryReader(in, channel, SharedImage.BULK_THRESHOLD, SharedImage::allocate);
+        }
+        in.unread(first);
+        return new SerializedReader(in);
+    }
+
+    // Only SEND_IMAGE's image is read into a pooled buffer, since its handler is the one that releases it
+    private static ActionHandler.Input arguments(MessageReader in) {
+        return new ActionHandler.Input() {
+            @Override
+            public Object readObject() throws IOException, ClassNotFoundException {
+                return in.readObject();
+            }
+
+            @Override
+            public Object readImage() throws IOException, ClassNotFoundException {
+                return in instanceof BinaryReader ? ((BinaryReader) in).readBulkObject() : in.readObject();
+            }
+        };
+    }
+
+    /** Writes relayed images to socket as it goes, with gathering writes when it has a channel. */
+    static ClientOutput.BufferSink sink(Socket socket) throws IOException {
+        SocketChannel channel = socket.getChannel();
+        OutputStream stream = socket.getOutputStream();
+        return new ClientOutput.BufferSink() {
+            @Override
+            public void write(ByteBuffer[] buffers, SharedImage image) throws IOException {
+                if (channel != null) {
+                    while (buffers[buffers.length - 1].hasRemaining()) {
+                        channel.write(buffers);
+                    }
+                    return;
+                }
+                // Copied in chunks: Channels.newChannel writes under a monitor, which pins a virtual thread
+                byte[] chunk = new byte[8192];
+                for (ByteBuffer buffer : buffers) {
+                    while (buffer.hasRemaining()) {
+                        int n = Math.min(buffer.remaining(), chunk.length);
+                        buffer.get(chunk, 0, n);
+                        stream.write(chunk, 0, n);
+                    }
+                }
+            }
+
+            @Override
+            public void afterWrites(Runnable task) {
+                task.run(); // every write has returned, so it is out
+            }
+        };
+    }
+
+    private static class ClientHandler implements Runnable {
         private Socket socket;
-        private ObjectOutputStream out;
-        private ObjectInputStream in;
+        private ClientOutput out;
+        private ImageQueue images;
+        private MessageReader in;
 
         public ClientHandler(Socket socket) {
             this.socket = socket;
@@ -42,17 +229,24 @@ public class Server {
             int userId = -1;
 
             try {
-                out = new ObjectOutputStream(socket.getOutputStream());
-                in = new ObjectInputStream(socket.getInputStream());
+                out = new ClientOutput(socket.getOutputStream(), sink(socket));
+                // Images go out on a thread of the same kind as this one while it waits on the socket
+                ThreadFactory writers = Thread.currentThread().isVirtual()
+                        ? Thread.ofVirtual().name("image-writer").factory()
+                        : Thread.ofPlatform().name("image-writer").daemon().factory();
+                images = new ImageQueue(out, socket, writers, imageLimits);
+                in = negotiate(socket, out);
+                ActionHandler handler = new ActionHandler(arguments(in), out);
 
                 Object initialActionObject = in.readObject();
+                out.replyTo(in.requestId());
                 if (initialActionObject instanceof String) {
                     String initialAction = (String) initialActionObject;
                     if ("LOGIN".equals(initialAction)) {
-                        handleLogin();
+                        handler.handleLogin();
                         return;
                     } else if ("REGISTER".equals(initialAction)) {
-                        handleRegister();
+                        handler.handleRegister();
                         return;
                     }
 //                    else {
@@ -61,59 +255,14 @@ public class Server {
 //                    }
                 }
 
-
-                if (initialActionObject instanceof String) {
-
-                    String value = (String) initialActionObject;
-
-                    String[] data = value.split(" ");
-
-                    if (data.length == 2){
-                        if (data[0].equals("UserId:")) {
-                            userId = Integer.parseInt(data[1]);
-                            activeClients.put(userId, out);
-
-                            if (userId == -1) {
-                                throw new RuntimeException("Invalid user");
-                            }
-
-                        }
-                        if (data[0].equals("ImageUserId:")) {
-                            userId = Integer.parseInt(data[1]);
-                            activeImageClients.put(userId, out);
-                        }
-                    }
-                }
-
-
-
                 // Store the output stream for the logged-in user
+                userId = register(initialActionObject, out, images);
 
                 while (true) {
                     Object actionObject = in.readObject();
+                    out.replyTo(in.requestId());
                     if (actionObject instanceof String) {
-                        String action = (String) actionObject;
-                        System.out.println("Received action: " + action);
-                        switch (action) {
-                            case "SEND_FRIEND_REQUEST":
-                                handleSendFriendRequest(userId);
-                                break;
-                            case "GET_PENDING_REQUESTS":
-                                handleGetPendingRequests(userId);
-                                break;
-                            case "UPDATE_FRIEND_REQUEST":
-                                handleUpdateFriendRequest(userId);
-                                break;
-                            case "GET_FRIENDS":
-                                handleGetFriends(userId);
-                                break;
-                            case "SEND_IMAGE":
-                                handleSendImage();
-                                break;
-                            default:
-                                System.out.println("Unknown action: " + action);
-                                out.writeObject("UNKNOWN_ACTION");
-                        }
+                        handler.dispatch((String) actionObject, userId);
                     } else {
                         out.writeObject("INVALID_ACTION_TYPE");
                     }
@@ -129,182 +278,28 @@ public class Server {
             } finally {
                 try {
                     activeClients.remove(userId);  // Remove the client from active clients list on disconnect
+                    if (images != null) {
+                        activeImageClients.remove(userId, images);
+                        images.close();
+                    }
                     socket.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
         }
-
-        private void handleLogin() throws IOException, SQLException, ClassNotFoundException {
-            System.out.println("Handling login request");
-            String username = (String) in.readObject();
-            String password = (String) in.readObject();
-            System.out.println("Received login credentials: username = " + username);
-            int userId = db.authenticateUser(username, password);
-
-            if (userId != -1) {
-                System.out.println("User authenticated: userId = " + userId);
-                out.writeObject(userId);
-            } else {
-                System.out.println("Authentication failed for user: " + username);
-                out.writeObject("USER_NOT_FOUND");
-            }
-        }
-
-        private void handleRegister() throws IOException, SQLException, ClassNotFoundException {
-            System.out.println("Handling register request");
-            String username = (String) in.readObject();
-            String password = (String) in.readObject();
-            System.out.println("Received registration credentials: username = " + username);
-
-            if (handleCheckUsername(username)) {
-                boolean success = db.registerUser(username, password);
-                if (success) {
-                    System.out.println("User registered successfully: username = " + username);
-                    out.writeObject("SUCCESS");
-                } else {
-                    System.out.println("Registration failed, user already exists: username = " + username);
-                    out.writeObject("USER_EXISTS");
-                }
-            } else {
-                out.writeObject("USERNAME_NOT_UNIQUE");
-            }
-        }
-
-        private void handleSendFriendRequest(int userId) throws IOException, SQLException {
-            try {
-                System.out.println("Starting handleSendFriendRequest method.");
-                String friendUsername = (String) in.readObject();
-                System.out.println("Received friend request for username: " + friendUsername);
-                int receiverId = db.getUserIdByUsername(friendUsername);
-                System.out.println("Retrieved receiverId: " + receiverId);
-                System.out.println("Sender ID: " + userId);
-
-                if (receiverId != -1) {
-                    db.sendFriendRequest(userId, receiverId);
-                    out.writeObject("SUCCESS");
-                    System.out.println("Friend request sent successfully from userId: " + userId + " to receiverId: " + receiverId);
-                } else {
-                    out.writeObject("USER_NOT_FOUND");
-                    System.out.println("User not found for username: " + friendUsername);
-                }
-            } catch (ClassNotFoundException e) {
-                System.err.println("ClassNotFoundException: " + e.getMessage());
-                e.printStackTrace();
-            } catch (SQLException e) {
-                System.err.println("SQLException: " + e.getMessage());
-                e.printStackTrace();
-            } catch (IOException e) {
-                System.err.println("IOException: " + e.getMessage());
-                e.printStackTrace();
-                throw e;
-            }
-        }
-
-        private void handleGetPendingRequests(int userId) throws IOException, SQLException {
-            System.out.println("handleGetPendingRequests userid: " + userId);
-            try {
-                ResultSet rs = db.getPendingRequests(userId);
-                List<String> requests = new ArrayList<>();
-                while (rs.next()) {
-                    int requestId = rs.getInt("sender_id");
-                    String senderUsername = rs.getString("username");
-                    requests.add(requestId + " - " + senderUsername);
-                }
-                System.out.println(requests.getClass() );
-                System.out.println(requests);
-                out.writeObject(requests);
-                out.flush();
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-        }
-
-        private boolean handleCheckUsername(String username) throws SQLException {
-            boolean isUnique = !db.checkUsernameExists(username);
-            return isUnique;
-        }
-
-        private void handleUpdateFriendRequest(int userId) throws IOException, SQLException {
-            try {
-                Object requestIdObject = in.readObject();
-                Object statusObject = in.readObject();
-
-                if (requestIdObject instanceof Integer && statusObject instanceof String) {
-                    int requestId = (Integer) requestIdObject;
-                    String status = (String) statusObject;
-                    db.updateFriendRequest(requestId, status);
-                    if ("ACCEPTED".equals(status)) {
-                        db.addFriend(userId, requestId);
-                    }
-                    out.writeObject("SUCCESS");
-                } else {
-                    out.writeObject("INVALID_REQUEST_DATA");
-                }
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace();
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-        }
-
-        private void handleGetFriends(int userId) throws IOException, SQLException {
-            List<String> friends = db.getFriends(userId);
-            System.out.println("Sending friends list: " + friends); // Log the friends list
-            out.writeObject(friends);
-            out.flush();
-        }
-
-        private void handleSendImage() throws IOException {
-            try {
-                // Read the list of recipients (usernames) and the image bytes
-                Object recipientsObject = in.readObject();
-                Object imageBytesObject = in.readObject();
-
-                if (recipientsObject instanceof List<?> && imageBytesObject instanceof byte[]) {
-                    @SuppressWarnings("unchecked")
-                    List<String> recipients = (List<String>) recipientsObject;
-                    byte[] imageBytes = (byte[]) imageBytesObject;
-
-                    System.out.println(recipients);
-                    if (!recipients.isEmpty()){
-                        for (String recipient : recipients) {
-                            int recipientId = db.getUserIdByUsername(recipient);
-                            if (recipientId != -1 && activeImageClients.containsKey(recipientId)) {
-                                // Send the image to the recipient
-                                ObjectOutputStream recipientOut = activeImageClients.get(recipientId);
-                                recipientOut.writeObject("RECEIVE_IMAGE");
-                                recipientOut.writeObject(imageBytes);
-                                System.out.println("Image sent to " + recipient);
-                            } else {
-//                            ObjectOutputStream recipientOut = activeClients.get(recipientId);
-//                            recipientOut.writeObject("RECEIVE_IMAGE_ERROR");
-                                out.writeObject("UNREACHABLE_USER");
-                                System.out.println("Recipient " + recipient + " is offline or not found.");
-                            }
-                        }
-                        out.writeObject("IMAGE_SENT");
-                    }else {
-                        out.writeObject("EMPTY_RECEIVER_LIST");
-                    }
-
-                } else {
-                    out.writeObject("INVALID_IMAGE_DATA");
-                }
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace();
-            } catch (SQLException e) {
-                e.printStackTrace();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
     }
 }
 
+/**
+ * The server's one JDBC connection, shared by every client handler. Statements run one at
+ * a time under a ReentrantLock rather than synchronized, so handlers on virtual threads
+ * wait for it without pinning their carrier threads, and at most one carrier is ever
+ * inside the driver.
+ */
 class DBConnection {
     private Connection con;
+    private final ReentrantLock lock = new ReentrantLock();
 
     public DBConnection() {
         try {
@@ -320,115 +315,169 @@ class DBConnection {
         }
     }
     public int authenticateUser(String username, String password) {
-        int userId = -1;  // Default value if authentication fails
-        String sql = "SELECT id FROM users WHERE username = ? AND password = ?";
+        lock.lock();
+        try {
+            int userId = -1;  // Default value if authentication fails
+            String sql = "SELECT id FROM users WHERE username = ? AND password = ?";
 
-        try (
-             PreparedStatement stmt = con.prepareStatement(sql)) {
+            try (
+                 PreparedStatement stmt = con.prepareStatement(sql)) {
 
-            // Set parameters for the SQL query
-            stmt.setString(1, username);
-            stmt.setString(2, password);
+                // Set parameters for the SQL query
+                stmt.setString(1, username);
+                stmt.setString(2, password);
 
-            // Execute the query
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    userId = rs.getInt("id");  // Get the user ID if the user exists
+                // Execute the query
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        userId = rs.getInt("id");  // Get the user ID if the user exists
+                    }
                 }
+
+            } catch (SQLException e) {
+                e.printStackTrace();  // Handle SQL exception
             }
 
-        } catch (SQLException e) {
-            e.printStackTrace();  // Handle SQL exception
+            return userId;  // Return the user ID if found, otherwise -1 for failure
+        } finally {
+            lock.unlock();
         }
-
-        return userId;  // Return the user ID if found, otherwise -1 for failure
     }
 
     public int getUserIdByUsername(String username) throws SQLException {
-        String query = "SELECT id FROM users WHERE username = ?";
-        try (PreparedStatement pst = con.prepareStatement(query)) {
-            pst.setString(1, username);
-            ResultSet rs = pst.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("id");
+        lock.lock();
+        try {
+            String query = "SELECT id FROM users WHERE username = ?";
+            try (PreparedStatement pst = con.prepareStatement(query)) {
+                pst.setString(1, username);
+                ResultSet rs = pst.executeQuery();
+                if (rs.next()) {
+                    return rs.getInt("id");
+                }
             }
+            return -1;
+        } finally {
+            lock.unlock();
         }
-        return -1;
     }
 
     public void sendFriendRequest(int senderId, int receiverId) throws SQLException {
-        String query = "INSERT INTO friend_requests (sender_id, receiver_id) VALUES (?, ?)";
-        try (PreparedStatement pst = con.prepareStatement(query)) {
-            pst.setInt(1, senderId);
-            pst.setInt(2, receiverId);
-            pst.executeUpdate();
+        lock.lock();
+        try {
+            String query = "INSERT INTO friend_requests (sender_id, receiver_id) VALUES (?, ?)";
+            try (PreparedStatement pst = con.prepareStatement(query)) {
+                pst.setInt(1, senderId);
+                pst.setInt(2, receiverId);
+                pst.executeUpdate();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
-    public ResultSet getPendingRequests(int userId) throws SQLException {
-        String query = "SELECT fr.sender_id, u.username " +
-                "FROM friend_requests fr " +
-                "JOIN users u ON fr.sender_id = u.id " +
-                "WHERE fr.receiver_id = ? AND fr.status is NULL";
-        PreparedStatement pst = con.prepareStatement(query);
-        pst.setInt(1, userId);
-        return pst.executeQuery();
+    /** Pending requests to userId as "senderId - senderUsername". */
+    public List<String> getPendingRequests(int userId) throws SQLException {
+        lock.lock();
+        try {
+            String query = "SELECT fr.sender_id, u.username " +
+                    "FROM friend_requests fr " +
+                    "JOIN users u ON fr.sender_id = u.id " +
+                    "WHERE fr.receiver_id = ? AND fr.status is NULL";
+            List<String> requests = new ArrayList<>();
+            try (PreparedStatement pst = con.prepareStatement(query)) {
+                pst.setInt(1, userId);
+                ResultSet rs = pst.executeQuery();
+                while (rs.next()) {
+                    int requestId = rs.getInt("sender_id");
+                    String senderUsername = rs.getString("username");
+                    requests.add(requestId + " - " + senderUsername);
+                }
+            }
+            return requests;
+        } finally {
+            lock.unlock();
+        }
     }
 
     public boolean checkUsernameExists(String username) throws SQLException {
-        String query = "SELECT * FROM users WHERE username = ?";
-        try (PreparedStatement pst = con.prepareStatement(query)) {
-            pst.setString(1, username);
-            ResultSet rs = pst.executeQuery();
-            return rs.next();
+        lock.lock();
+        try {
+            String query = "SELECT * FROM users WHERE username = ?";
+            try (PreparedStatement pst = con.prepareStatement(query)) {
+                pst.setString(1, username);
+                ResultSet rs = pst.executeQuery();
+                return rs.next();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     public boolean registerUser(String username, String password) throws SQLException {
-        if (!checkUsernameExists(username)) {
-            String query = "INSERT INTO users (username, password) VALUES (?, ?)";
-            try (PreparedStatement pst = con.prepareStatement(query)) {
-                pst.setString(1, username);
-                pst.setString(2, password);
-                pst.executeUpdate();
-                return true;
+        lock.lock();
+        try {
+            if (!checkUsernameExists(username)) {
+                String query = "INSERT INTO users (username, password) VALUES (?, ?)";
+                try (PreparedStatement pst = con.prepareStatement(query)) {
+                    pst.setString(1, username);
+                    pst.setString(2, password);
+                    pst.executeUpdate();
+                    return true;
+                }
             }
+            return false;
+        } finally {
+            lock.unlock();
         }
-        return false;
     }
 
     public void updateFriendRequest(int requestId, String status) throws SQLException {
-        String query = "UPDATE friend_requests SET status = ? WHERE sender_id = ?";
-        try (PreparedStatement pst = con.prepareStatement(query)) {
-            pst.setString(1, status);
-            pst.setInt(2, requestId);
-            pst.executeUpdate();
+        lock.lock();
+        try {
+            String query = "UPDATE friend_requests SET status = ? WHERE sender_id = ?";
+            try (PreparedStatement pst = con.prepareStatement(query)) {
+                pst.setString(1, status);
+                pst.setInt(2, requestId);
+                pst.executeUpdate();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     public void addFriend(int userId1, int userId2) throws SQLException {
-        String query = "INSERT INTO friends (user1_id, user2_id) VALUES (?, ?)";
-        try (PreparedStatement pst = con.prepareStatement(query)) {
-            pst.setInt(1, userId1);
-            pst.setInt(2, userId2);
-            pst.executeUpdate();
+        lock.lock();
+        try {
+            String query = "INSERT INTO friends (user1_id, user2_id) VALUES (?, ?)";
+            try (PreparedStatement pst = con.prepareStatement(query)) {
+                pst.setInt(1, userId1);
+                pst.setInt(2, userId2);
+                pst.executeUpdate();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     public List<String> getFriends(int userId) throws SQLException {
-        List<String> friends = new ArrayList<>();
-        String query = "SELECT u.username " +
-                "FROM friends f " +
-                "JOIN users u ON (f.user1_id = ? AND f.user2_id = u.id) OR (f.user2_id = ? AND f.user1_id = u.id)";
-        try (PreparedStatement pst = con.prepareStatement(query)) {
-            pst.setInt(1, userId);
-            pst.setInt(2, userId);
-            ResultSet rs = pst.executeQuery();
-            while (rs.next()) {
-                friends.add(rs.getString("username"));
+        lock.lock();
+        try {
+            List<String> friends = new ArrayList<>();
+            String query = "SELECT u.username " +
+                    "FROM friends f " +
+                    "JOIN users u ON (f.user1_id = ? AND f.user2_id = u.id) OR (f.user2_id = ? AND f.user1_id = u.id)";
+            try (PreparedStatement pst = con.prepareStatement(query)) {
+                pst.setInt(1, userId);
+                pst.setInt(2, userId);
+                ResultSet rs = pst.executeQuery();
+                while (rs.next()) {
+                    friends.add(rs.getString("username"));
+                }
             }
+            return friends;
+        } finally {
+            lock.unlock();
         }
-        return friends;
     }
 }
 
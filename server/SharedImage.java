@@ -0,0 +1,100 @@
+package server;
+
+import protocol.BinaryWriter;
+import protocol.Wire;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An image being relayed, held once and shared by every recipient. Binary clients get the
+ * RECEIVE_IMAGE frames straight from this buffer; Java serialization clients get a byte[]
+ * copy, made at most once per image.
+ * <p>
+ * Images of {@link #BULK_THRESHOLD} bytes or more arrive from binary senders in pooled
+ * direct buffers. Reference counting returns such a buffer to the pool once the sender's
+ * handler and every event loop still writing it have let go.
+ */
+final class SharedImage {
+    /** Byte arrays from this size on are read into pooled direct buffers rather than the heap. */
+    static final int BULK_THRESHOLD = BufferPool.MIN_SIZE;
+    private static final BufferPool POOL = new BufferPool(Wire.MAX_PAYLOAD, 256L << 20);
+
+    private final ByteBuffer bytes;
+    private final boolean pooled;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private ByteBuffer framePrefix;
+    private byte[] array;
+
+    /** Takes over a buffer from {@link #allocate}, flipped; the caller holds the one reference. */
+    SharedImage(ByteBuffer pooledBytes) {
+        this.bytes = pooledBytes;
+        this.pooled = true;
+    }
+
+    /** An image a Java serialization sender delivered on the heap. */
+    SharedImage(byte[] bytes) {
+        this.bytes = ByteBuffer.wrap(bytes);
+        this.pooled = false;
+        this.array = bytes;
+    }
+
+    /** A pooled direct buffer for an image of length bytes. */
+    static ByteBuffer allocate(int length) {
+        return POOL.acquire(length);
+    }
+
+    /** Gives back a value read from a client if it is a buffer from {@link #allocate} nobody took over. */
+    static void discard(Object value) {
+        if (value instanceof ByteBuffer) {
+            POOL.release((ByteBuffer) value);
+        }
+    }
+
+    /**
+     * The RECEIVE_IMAGE push as a binary client reads it, ready for one gathering write: the
+     * action and image frame headers, then the image. Fresh views, the bytes themselves shared.
+     */
+    ByteBuffer[] frames() {
+        synchronized (this) {
+            if (framePrefix == null) {
+                ByteArrayOutputStream prefix = new ByteArrayOutputStream(32);
+                BinaryWriter writer = new BinaryWriter(prefix);
+                try {
+                    writer.write(0, "RECEIVE_IMAGE");
+                    writer.writeBytesHeader(0, bytes.remaining());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e); // not from a ByteArrayOutputStream
+                }
+                framePrefix = ByteBuffer.wrap(prefix.toByteArray()).asReadOnlyBuffer();
+            }
+        }
+        return new ByteBuffer[]{framePrefix.duplicate(), bytes.asReadOnlyBuffer()};
+    }
+
+    int length() {
+        return bytes.remaining();
+    }
+
+    /** The image as a byte[], for Java serialization; copied out of a direct buffer once. */
+    synchronized byte[] array() {
+        if (array == null) {
+            array = new byte[bytes.remaining()];
+            bytes.duplicate().get(array);
+        }
+        return array;
+    }
+
+    void retain() {
+        references.incrementAndGet();
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0 && pooled) {
+            POOL.release(bytes);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package steganography;
+
+/** A permutation that is already fully materialised, e.g. a legacy stored sequence. */
+final class ArraySequence implements PositionSequence {
+    private final int[] sequence;
+
+    ArraySequence(int[] sequence) {
+        this.sequence = sequence;
+    }
+
+    @Override
+    public long length() {
+        return sequence.length;
+    }
+
+    @Override
+    public long position(long i) {
+        return sequence[(int) i];
+    }
+
+    @Override
+    public void positions(long from, long[] out, int count) {
+        int start = (int) from;
+        for (int i = 0; i < count; i++) {
+            out[i] = sequence[start + i];
+        }
+    }
+}
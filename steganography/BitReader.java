@@ -0,0 +1,35 @@
+package steganography;
+
+/** Reads the bits of a byte array most significant bit first. */
+final class BitReader {
+    private final byte[] data;
+    private final long bitLength;
+    private long bitPos;
+
+    BitReader(byte[] data) {
+        this(data, 0, (long) data.length * 8);
+    }
+
+    /** Reads bits fromBit (inclusive) to toBit (exclusive) of data. */
+    BitReader(byte[] data, long fromBit, long toBit) {
+        this.data = data;
+        this.bitPos = fromBit;
+        this.bitLength = toBit;
+    }
+
+    boolean hasNext() {
+        return bitPos < bitLength;
+    }
+
+    long remaining() {
+        return bitLength - bitPos;
+    }
+
+    int readBit() {
+        if (bitPos >= bitLength) {
+            throw new IllegalStateException("Read past end of bit stream");
+        }
+        long pos = bitPos++;
+        return (data[(int) (pos >>> 3)] >>> (7 - (int) (pos & 7))) & 1;
+    }
+}
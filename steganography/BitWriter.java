@@ -0,0 +1,49 @@
+package steganography;
+
+/** Packs bits into a fixed-size byte array, most significant bit first. */
+final class BitWriter {
+    private final byte[] data;
+    private long bitPos;
+
+    BitWriter(int byteLength) {
+        this(new byte[byteLength], 0);
+    }
+
+    /** Writes into an existing array starting at startBit; the target bits must be 0. */
+    BitWriter(byte[] data, long startBit) {
+        this.data = data;
+        this.bitPos = startBit;
+    }
+
+    /** Index of the next bit to be written. */
+    long position() {
+        return bitPos;
+    }
+
+    void writeBit(int bit) {
+        long pos = bitPos++;
+        if (bit != 0) {
+            data[(int) (pos >>> 3)] |= (byte) (0x80 >>> (int) (pos & 7));
+        }
+    }
+
+    /** Writes the count (1 to 64) highest bits of word, most significant first. */
+    void writeBits(long word, int count) {
+        if ((bitPos & 7) != 0 || (count & 7) != 0) {
+            for (int i = 0; i < count; i++) {
+                writeBit((int) (word >>> (63 - i)) & 1);
+            }
+            return;
+        }
+        int index = (int) (bitPos >>> 3);
+        for (int i = 0; i < count; i += 8) {
+            data[index++] |= (byte) (word >>> (56 - i));
+        }
+        bitPos += count;
+    }
+
+    /** The packed bytes; bits not written yet read as 0. */
+    byte[] toByteArray() {
+        return data;
+    }
+}
@@ -0,0 +1,79 @@
+package steganography;
+
+/**
+ * Keyed permutation that keeps runs of the sequence inside small blocks of the image. The
+ * channel positions are cut into blocks of {@link #BLOCK_POSITIONS} (1024 pixels, one
+ * 4 KB page of a TYPE_INT_RGB raster). A Feistel permutation orders the blocks, and a
+ * second one, tweaked per block, orders the positions inside each. Consecutive slots
+ * therefore stay within one block until it is used up, so embedding and extraction touch
+ * a new page once per 3072 slots instead of on nearly every slot.
+ * <p>
+ * Blocks are still chosen by the key and filled in keyed order, but a payload occupies
+ * whole blocks rather than being spread thinly across the image; detectors that compare
+ * LSB statistics between regions see more concentrated changes than with
+ * {@link FeistelSequence}. The short block at the end of the image, if any, comes last.
+ */
+final class BlockSequence implements PositionSequence {
+    static final int BLOCK_POSITIONS = 3 * 1024;
+
+    private final long length;
+    private final long fullBlocks;
+    private final FeistelSequence blockOrder;
+    private final FeistelSequence withinBlock;
+    private final FeistelSequence withinTail;
+
+    BlockSequence(byte[] seed, long length) {
+        if (length < 1) {
+            throw new IllegalArgumentException("Empty sequence");
+        }
+        this.length = length;
+        fullBlocks = length / BLOCK_POSITIONS;
+        long tail = length % BLOCK_POSITIONS;
+        KeyedRandom random = new KeyedRandom(seed);
+        blockOrder = fullBlocks > 0 ? new FeistelSequence(random, fullBlocks) : null;
+        withinBlock = fullBlocks > 0 ? new FeistelSequence(random, BLOCK_POSITIONS) : null;
+        withinTail = tail > 0 ? new FeistelSequence(random, tail) : null;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long position(long i) {
+        if (i < 0 || i >= length) {
+            throw new IndexOutOfBoundsException(i);
+        }
+        long slot = i / BLOCK_POSITIONS;
+        if (slot < fullBlocks) {
+            long block = blockOrder.position(slot);
+            return block * BLOCK_POSITIONS + withinBlock.position(i % BLOCK_POSITIONS, FeistelSequence.mix(block + 1));
+        }
+        return fullBlocks * BLOCK_POSITIONS + withinTail.position(i - fullBlocks * BLOCK_POSITIONS);
+    }
+
+    // One block lookup per run of slots in the same block
+    @Override
+    public void positions(long from, long[] out, int count) {
+        int i = 0;
+        while (i < count) {
+            long index = from + i;
+            long slot = index / BLOCK_POSITIONS;
+            if (slot >= fullBlocks) {
+                for (; i < count; i++) {
+                    out[i] = position(from + i);
+                }
+                return;
+            }
+            long block = blockOrder.position(slot);
+            long base = block * BLOCK_POSITIONS;
+            long tweak = FeistelSequence.mix(block + 1);
+            int offset = (int) (index % BLOCK_POSITIONS);
+            int run = Math.min(count - i, BLOCK_POSITIONS - offset);
+            for (int k = 0; k < run; k++) {
+                out[i++] = base + withinBlock.position(offset + k, tweak);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package steganography;
+
+/**
+ * Pre-flight answer to "does this payload fit this cover, and what does it cost", worked
+ * out from the cover's dimensions alone. The image type does not matter: every cover is
+ * embedded as three 8-bit colour channels per pixel, and alpha is never used.
+ * <p>
+ * Sizes are exact for the layout {@link StegoCodec} writes. The one estimate is
+ * {@link #expectedChanges()}, which assumes cover LSBs are random. When compression is on
+ * and only a payload size is given, the plan is for the payload stored uncompressed, an
+ * upper bound since compression is skipped whenever it would not help; pass the payload
+ * itself for an exact plan.
+ */
+public final class CapacityPlan {
+    private final long channels;
+    private final int storedBytes;
+    private final PayloadHeader header;
+    private final int maxStoredBytes;
+
+    private CapacityPlan(long channels, int storedBytes, int flags, StegoOptions options) {
+        this.channels = channels;
+        this.storedBytes = storedBytes;
+        this.header = header(flags, storedBytes, options);
+        this.maxStoredBytes = maxStoredBytes(channels, flags, options);
+    }
+
+    /** Plan for payloadBytes bytes in a width x height cover. */
+    public static CapacityPlan of(int width, int height, int payloadBytes, StegoOptions options) {
+        if (payloadBytes < 0) {
+            throw new IllegalArgumentException("Payload size must not be negative: " + payloadBytes);
+        }
+        return new CapacityPlan(channels(width, height), payloadBytes, 0, options);
+    }
+
+    /** Plan for this exact payload, compressed first if the options ask for it and it helps. */
+    public static CapacityPlan of(int width, int height, byte[] payload, StegoOptions options) {
+        int flags = 0;
+        int stored = payload.length;
+        if (options.compression()) {
+            byte[] compressed = PayloadCompression.compress(payload);
+            if (compressed != null) {
+                flags = PayloadHeader.FLAG_COMPRESSED;
+                stored = compressed.length;
+            }
+        }
+        return new CapacityPlan(channels(width, height), stored, flags, options);
+    }
+
+    /** Channel positions in the cover, three per pixel. */
+    public long channels() {
+        return channels;
+    }
+
+    /** Payload bytes as stored in the image, after compression and before error correction. */
+    public int storedBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * Largest stored payload, in bytes, that fits the cover with these options; 0 if not even
+     * the header fits. Compressible payloads can be correspondingly larger before compression.
+     */
+    public int maxStoredBytes() {
+        return maxStoredBytes;
+    }
+
+    /** Positions written for the header and the payload together. */
+    public long usedPositions() {
+        return header.totalPositions();
+    }
+
+    public boolean fits() {
+        return usedPositions() <= channels;
+    }
+
+    /**
+     * Channels expected to actually change: half of the positions written by repetition,
+     * 1 - 2^-k of them at k bits per channel, and 1 - 2^-k of the groups written by matrix
+     * embedding.
+     */
+    public long expectedChanges() {
+        long payloadPositions = usedPositions() - header.positions();
+        double changes = header.positions() / 2.0;
+        if (header.isMatrix()) {
+            long groups = payloadPositions / MatrixEmbedding.groupSize(header.matrixBits);
+            changes += groups * (1 - 1.0 / (1 << header.matrixBits));
+        } else {
+            changes += payloadPositions * (1 - 1.0 / (1 << header.lsbBits));
+        }
+        return Math.round(changes);
+    }
+
+    @Override
+    public String toString() {
+        return "CapacityPlan[channels=" + channels + ", storedBytes=" + storedBytes + ", usedPositions=" + usedPositions()
+                + ", maxStoredBytes=" + maxStoredBytes + ", expectedChanges=" + expectedChanges() + "]";
+    }
+
+    private static long channels(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid cover size: " + width + "x" + height);
+        }
+        return (long) width * height * 3;
+    }
+
+    private static PayloadHeader header(int flags, int storedBytes, StegoOptions options) {
+        return new PayloadHeader(flags, options.redundancy(), storedBytes, options.fec(), options.matrixBits(),
+                options.bitsPerChannel());
+    }
+
+    // Positions grow with the stored length, so the largest length that fits is a binary search away
+    private static int maxStoredBytes(long channels, int flags, StegoOptions options) {
+        if (header(flags, 0, options).totalPositions() > channels) {
+            return 0;
+        }
+        int lo = 0;
+        int hi = Integer.MAX_VALUE;
+        while (lo < hi) {
+            int mid = (int) (((long) lo + hi + 1) / 2);
+            if (header(flags, mid, options).totalPositions() <= channels) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+}
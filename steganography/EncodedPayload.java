@@ -0,0 +1,36 @@
+package steganography;
+
+/**
+ * A payload after the optional compression and error correction stages, together with
+ * the header describing it: exactly what gets spread over the position sequence.
+ */
+final class EncodedPayload {
+    final PayloadHeader header;
+    /** {@link PayloadHeader#codedBits()} bits, MSB first. */
+    final byte[] coded;
+
+    private EncodedPayload(PayloadHeader header, byte[] coded) {
+        this.header = header;
+        this.coded = coded;
+    }
+
+    static EncodedPayload encode(byte[] payload, StegoOptions options) {
+        int flags = 0;
+        if (options.compression()) {
+            byte[] compressed = PayloadCompression.compress(payload);
+            if (compressed != null) {
+                payload = compressed;
+                flags |= PayloadHeader.FLAG_COMPRESSED;
+            }
+        }
+        PayloadHeader header = new PayloadHeader(flags, options.redundancy(), payload.length, options.fec(), options.matrixBits(),
+                options.bitsPerChannel());
+        return new EncodedPayload(header, header.fec.codec().encode(payload));
+    }
+
+    /** Undoes {@link #encode} for coded bits read back from an image. */
+    static byte[] decode(PayloadHeader header, byte[] coded) {
+        byte[] payload = header.fec.codec().decode(coded, header.length);
+        return header.isCompressed() ? PayloadCompression.decompress(payload) : payload;
+    }
+}
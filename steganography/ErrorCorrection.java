@@ -0,0 +1,16 @@
+package steganography;
+
+/**
+ * Forward error correction applied to the payload bytes before they are spread over the
+ * image. Implementations are stateless.
+ */
+interface ErrorCorrection {
+    /** Number of coded bits produced for dataBytes bytes of payload. */
+    long encodedBits(int dataBytes);
+
+    /** Encodes data; the result holds {@link #encodedBits} bits, MSB first. */
+    byte[] encode(byte[] data);
+
+    /** Recovers dataBytes bytes from coded, correcting what the code allows. */
+    byte[] decode(byte[] coded, int dataBytes);
+}
@@ -0,0 +1,62 @@
+package steganography;
+
+/**
+ * Forward error correction schemes selectable per image. The scheme's id is stored in
+ * the payload header, so extraction picks the right decoder by itself.
+ * <p>
+ * Independently of the scheme, every coded bit is still written {@code redundancy} times
+ * (see {@link StegoOptions}); plain repetition is {@link #NONE} with redundancy 3.
+ */
+public enum Fec {
+    /** No coding; rely on repetition alone. */
+    NONE(0),
+    /** Hamming(7,4): 1.75x, fixes one bit per 7. */
+    HAMMING_7_4(1),
+    /** RS(255,223) over GF(2^8): about 1.14x, fixes 16 bytes per 255. */
+    REED_SOLOMON(2);
+
+    final int id;
+
+    Fec(int id) {
+        this.id = id;
+    }
+
+    ErrorCorrection codec() {
+        switch (this) {
+            case HAMMING_7_4:
+                return new Hamming74();
+            case REED_SOLOMON:
+                return new ReedSolomon();
+            default:
+                return NoCorrection.INSTANCE;
+        }
+    }
+
+    static Fec fromId(int id) {
+        for (Fec fec : values()) {
+            if (fec.id == id) {
+                return fec;
+            }
+        }
+        return null;
+    }
+
+    private static final class NoCorrection implements ErrorCorrection {
+        static final NoCorrection INSTANCE = new NoCorrection();
+
+        @Override
+        public long encodedBits(int dataBytes) {
+            return 8L * dataBytes;
+        }
+
+        @Override
+        public byte[] encode(byte[] data) {
+            return data;
+        }
+
+        @Override
+        public byte[] decode(byte[] coded, int dataBytes) {
+            return coded;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package steganography;
+
+/**
+ * Keyed pseudo-random permutation of 0..length-1 computed one index at a time.
+ * <p>
+ * A balanced Feistel network over the smallest even bit width that covers the domain,
+ * with cycle walking to stay below {@code length}. Each call costs a few rounds of
+ * integer mixing and the object holds only the round keys, so embedding a short message
+ * into a huge cover no longer allocates or shuffles a w*h*3 array.
+ */
+final class FeistelSequence implements PositionSequence {
+    private static final int ROUNDS = 8;
+
+    private final long length;
+    private final int halfBits;
+    private final long halfMask;
+    private final long[] roundKeys = new long[ROUNDS];
+
+    FeistelSequence(byte[] seed, long length) {
+        this(new KeyedRandom(seed), length);
+    }
+
+    /** Takes its round keys from random, so several sequences can share one seed. */
+    FeistelSequence(KeyedRandom random, long length) {
+        if (length < 1) {
+            throw new IllegalArgumentException("Empty sequence");
+        }
+        this.length = length;
+        int bits = Math.max(2, 64 - Long.numberOfLeadingZeros(length - 1));
+        halfBits = (bits + 1) / 2;
+        halfMask = (1L << halfBits) - 1;
+        for (int r = 0; r < ROUNDS; r++) {
+            roundKeys[r] = random.nextLong();
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long position(long i) {
+        return position(i, 0);
+    }
+
+    /**
+     * Like {@link #position(long)} with every round key XORed with tweak, which gives an
+     * unrelated permutation for each tweak value without new round keys.
+     */
+    long position(long i, long tweak) {
+        if (i < 0 || i >= length) {
+            throw new IndexOutOfBoundsException(i);
+        }
+        long x = i;
+        do {
+            x = encrypt(x, tweak);
+        } while (x >= length);
+        return x;
+    }
+
+    private long encrypt(long x, long tweak) {
+        long left = x >>> halfBits;
+        long right = x & halfMask;
+        for (int r = 0; r < ROUNDS; r++) {
+            long next = left ^ (mix(right ^ roundKeys[r] ^ tweak) & halfMask);
+            left = right;
+            right = next;
+        }
+        return (left << halfBits) | right;
+    }
+
+    // MurmurHash3 64-bit finaliser
+    static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
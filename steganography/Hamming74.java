@@ -0,0 +1,73 @@
+package steganography;
+
+/**
+ * Hamming(7,4): every payload nibble becomes a 7-bit codeword, correcting one flipped bit
+ * per codeword at 1.75x size (against 3x for triple repetition). Codeword bit order is
+ * p1 p2 d1 p3 d2 d3 d4.
+ */
+final class Hamming74 implements ErrorCorrection {
+    private static final int[] ENCODE = new int[16];
+    private static final int[] DECODE = new int[128];
+
+    static {
+        for (int d = 0; d < 16; d++) {
+            int d1 = (d >> 3) & 1, d2 = (d >> 2) & 1, d3 = (d >> 1) & 1, d4 = d & 1;
+            int p1 = d1 ^ d2 ^ d4;
+            int p2 = d1 ^ d3 ^ d4;
+            int p3 = d2 ^ d3 ^ d4;
+            ENCODE[d] = (p1 << 6) | (p2 << 5) | (d1 << 4) | (p3 << 3) | (d2 << 2) | (d3 << 1) | d4;
+        }
+        for (int word = 0; word < 128; word++) {
+            // Syndrome is the 1-based position (from the left) of a single flipped bit
+            int syndrome = 0;
+            for (int pos = 1; pos <= 7; pos++) {
+                if (((word >> (7 - pos)) & 1) != 0) {
+                    syndrome ^= pos;
+                }
+            }
+            int fixed = syndrome == 0 ? word : word ^ (1 << (7 - syndrome));
+            DECODE[word] = (((fixed >> 4) & 1) << 3) | (((fixed >> 2) & 1) << 2) | (((fixed >> 1) & 1) << 1) | (fixed & 1);
+        }
+    }
+
+    @Override
+    public long encodedBits(int dataBytes) {
+        return 14L * dataBytes;
+    }
+
+    @Override
+    public byte[] encode(byte[] data) {
+        BitWriter out = new BitWriter((int) ((encodedBits(data.length) + 7) / 8));
+        for (byte b : data) {
+            writeWord(out, ENCODE[(b >> 4) & 0xF]);
+            writeWord(out, ENCODE[b & 0xF]);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public byte[] decode(byte[] coded, int dataBytes) {
+        BitReader in = new BitReader(coded, 0, encodedBits(dataBytes));
+        byte[] out = new byte[dataBytes];
+        for (int i = 0; i < dataBytes; i++) {
+            int high = DECODE[readWord(in)];
+            int low = DECODE[readWord(in)];
+            out[i] = (byte) ((high << 4) | low);
+        }
+        return out;
+    }
+
+    private static void writeWord(BitWriter out, int word) {
+        for (int shift = 6; shift >= 0; shift--) {
+            out.writeBit((word >> shift) & 1);
+        }
+    }
+
+    private static int readWord(BitReader in) {
+        int word = 0;
+        for (int i = 0; i < 7; i++) {
+            word = (word << 1) | in.readBit();
+        }
+        return word;
+    }
+}
@@ -0,0 +1,114 @@
+package steganography;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Image identifier stored at a fixed, public place in the cover, so extraction can find
+ * the right key without being told which image this is.
+ * <pre>
+ *   bytes 0-1    magic "ID"
+ *   byte 2       sequence kind of a key derived from the identifier: 0 Feistel, 1 block
+ *   bytes 3-18   UUID, most significant half first
+ *   bytes 19-22  CRC-32 of bytes 0-18, big-endian
+ * </pre>
+ * The record is written with {@link PayloadHeader#HEADER_REDUNDANCY} copies per bit into
+ * the last {@link #POSITIONS} channel positions of the image, in an order given by a
+ * Feistel permutation with a fixed, published seed. Keys for identified images cover only
+ * the channels before that region ({@link #keyLength}), so the payload never touches it.
+ * <p>
+ * The identifier is readable by anyone; it names the image, it does not protect anything.
+ * A random cover passes the magic and CRC checks with probability 2^-48.
+ */
+final class ImageId {
+    private static final byte[] MAGIC = {'I', 'D'};
+    private static final int RECORD_BYTES = 23;
+    static final int POSITIONS = RECORD_BYTES * 8 * PayloadHeader.HEADER_REDUNDANCY;
+    private static final byte[] PUBLIC_SEED = "steganography image id v1".getBytes(StandardCharsets.US_ASCII);
+
+    final UUID id;
+    /** {@link SequenceKey#FEISTEL} or {@link SequenceKey#BLOCK_FEISTEL}. */
+    final String keyAlgorithm;
+
+    ImageId(UUID id, String keyAlgorithm) {
+        this.id = id;
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    /** Sequence length left for the payload key of an identified image with this many channels. */
+    static long keyLength(long channels) {
+        if (channels <= POSITIONS) {
+            throw new IllegalArgumentException("Image is too small to carry an image ID");
+        }
+        return channels - POSITIONS;
+    }
+
+    void write(LsbRaster raster) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        record.put(MAGIC).put((byte) (SequenceKey.BLOCK_FEISTEL.equals(keyAlgorithm) ? 1 : 0))
+                .putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+        record.putInt((int) crc(record.array()));
+
+        PositionSequence positions = positions(raster.capacity());
+        BitReader bits = new BitReader(record.array());
+        long idx = 0;
+        while (bits.hasNext()) {
+            int bit = bits.readBit();
+            for (int r = 0; r < PayloadHeader.HEADER_REDUNDANCY; r++) {
+                raster.setLsb(positions.position(idx++), bit);
+            }
+        }
+    }
+
+    /** The identifier in raster, or null if it carries none. */
+    static ImageId read(LsbRaster raster) {
+        if (raster.capacity() <= POSITIONS) {
+            return null;
+        }
+        PositionSequence positions = positions(raster.capacity());
+        BitWriter out = new BitWriter(RECORD_BYTES);
+        long idx = 0;
+        for (int i = 0; i < RECORD_BYTES * 8; i++) {
+            int count = 0;
+            for (int r = 0; r < PayloadHeader.HEADER_REDUNDANCY; r++) {
+                count += raster.getLsb(positions.position(idx++));
+            }
+            out.writeBit(count > PayloadHeader.HEADER_REDUNDANCY / 2 ? 1 : 0);
+        }
+        ByteBuffer record = ByteBuffer.wrap(out.toByteArray());
+        if (record.get() != MAGIC[0] || record.get() != MAGIC[1]) {
+            return null;
+        }
+        int kind = record.get();
+        UUID id = new UUID(record.getLong(), record.getLong());
+        if (record.getInt() != (int) crc(record.array()) || kind != 0 && kind != 1) {
+            return null;
+        }
+        return new ImageId(id, kind == 1 ? SequenceKey.BLOCK_FEISTEL : SequenceKey.FEISTEL);
+    }
+
+    // The last POSITIONS channels, shuffled by the public permutation
+    private static PositionSequence positions(long channels) {
+        long base = keyLength(channels);
+        FeistelSequence order = new FeistelSequence(PUBLIC_SEED, POSITIONS);
+        return new PositionSequence() {
+            @Override
+            public long length() {
+                return POSITIONS;
+            }
+
+            @Override
+            public long position(long i) {
+                return base + order.position(i);
+            }
+        };
+    }
+
+    private static long crc(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, RECORD_BYTES - 4);
+        return crc.getValue();
+    }
+}
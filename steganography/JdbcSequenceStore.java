@@ -0,0 +1,114 @@
+package steganography;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Keys in the PseudoRandomSequences table. Once {@link SequenceMigration} has added the
+ * {@code sequence_blob} column, keys are written there in {@link SequenceBlob} form and
+ * read back through {@link ResultSet#getBinaryStream}; rows not migrated yet are still
+ * read from the {@code sequence} text column. Without the column everything stays text,
+ * as before. Calls share one connection and are serialised on it.
+ */
+public final class JdbcSequenceStore implements SequenceStore {
+    static final String TABLE = "PseudoRandomSequences";
+    static final String BLOB_COLUMN = "sequence_blob";
+    private static final String INSERT_TEXT = "INSERT INTO " + TABLE + " (image_id, sequence) VALUES (?, ?)";
+    private static final String INSERT_BLOB = "INSERT INTO " + TABLE + " (image_id, " + BLOB_COLUMN + ") VALUES (?, ?)";
+    private static final String SELECT_TEXT = "SELECT sequence FROM " + TABLE + " WHERE image_id = ?";
+    private static final String SELECT_BLOB = "SELECT " + BLOB_COLUMN + ", sequence FROM " + TABLE + " WHERE image_id = ?";
+
+    private final Connection con;
+    private final boolean blob;
+    private final boolean deflate;
+
+    /** @param deflate deflate stored permutations where that makes them smaller */
+    public JdbcSequenceStore(Connection con, boolean deflate) throws IOException {
+        this.con = con;
+        this.deflate = deflate;
+        try {
+            this.blob = hasBlobColumn(con);
+        } catch (SQLException e) {
+            throw new IOException("Cannot read the " + TABLE + " schema", e);
+        }
+    }
+
+    /** Connects with the MySQL driver, as the desktop apps always have. */
+    public static JdbcSequenceStore connect(String url, String user, String password, boolean deflate) throws IOException {
+        try {
+            Class.forName("com.mysql.cj.jdbc.Driver");
+            return new JdbcSequenceStore(DriverManager.getConnection(url, user, password), deflate);
+        } catch (ClassNotFoundException | SQLException e) {
+            throw new IOException("DB connection failure", e);
+        }
+    }
+
+    static boolean hasBlobColumn(Connection con) throws SQLException {
+        DatabaseMetaData meta = con.getMetaData();
+        for (String table : new String[]{TABLE, TABLE.toLowerCase(), TABLE.toUpperCase()}) {
+            try (ResultSet columns = meta.getColumns(con.getCatalog(), null, table, null)) {
+                while (columns.next()) {
+                    if (BLOB_COLUMN.equalsIgnoreCase(columns.getString("COLUMN_NAME"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void save(String imageId, SequenceKey key) throws IOException {
+        try (PreparedStatement stmt = con.prepareStatement(blob ? INSERT_BLOB : INSERT_TEXT)) {
+            stmt.setString(1, imageId);
+            if (blob) {
+                stmt.setBytes(2, key.toBlob(deflate));
+            } else {
+                stmt.setString(2, key.encode());
+            }
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new IOException("Cannot store the sequence for " + imageId, e);
+        }
+    }
+
+    @Override
+    public synchronized SequenceKey find(String imageId) throws IOException {
+        try (PreparedStatement stmt = con.prepareStatement(blob ? SELECT_BLOB : SELECT_TEXT)) {
+            stmt.setString(1, imageId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? read(rs, blob) : null;
+            }
+        } catch (SQLException e) {
+            throw new IOException("Cannot read the sequence for " + imageId, e);
+        }
+    }
+
+    /** The key in the current row, from the blob column if it has one and else from text. */
+    static SequenceKey read(ResultSet rs, boolean blob) throws SQLException, IOException {
+        if (blob) {
+            try (InputStream in = rs.getBinaryStream(BLOB_COLUMN)) {
+                if (in != null) {
+                    return SequenceKey.fromBlob(in);
+                }
+            }
+        }
+        String text = rs.getString("sequence");
+        return text != null ? SequenceKey.decode(text) : null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            con.close();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+}
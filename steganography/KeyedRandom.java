@@ -0,0 +1,59 @@
+package steganography;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+/**
+ * Deterministic random source keyed by a secret seed.
+ * <p>
+ * Output is HMAC-SHA256(seed, counter) for counter = 0, 1, 2, ..., so the same seed always
+ * yields the same stream on every JVM, unlike SecureRandom whose output depends on the
+ * provider. Only {@link #next(int)} is overridden; the bounded helpers inherited from
+ * {@link Random} (nextInt(bound) etc.) stay unbiased.
+ */
+class KeyedRandom extends Random {
+    private final Mac mac;
+    private final byte[] counterBytes = new byte[8];
+    private final byte[] block = new byte[32];
+    private long counter;
+    private int blockPos = block.length;
+
+    KeyedRandom(byte[] seed) {
+        try {
+            mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(seed, "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    }
+
+    @Override
+    protected int next(int bits) {
+        if (blockPos == block.length) {
+            refill();
+        }
+        int value = ((block[blockPos] & 0xFF) << 24)
+                | ((block[blockPos + 1] & 0xFF) << 16)
+                | ((block[blockPos + 2] & 0xFF) << 8)
+                | (block[blockPos + 3] & 0xFF);
+        blockPos += 4;
+        return value >>> (32 - bits);
+    }
+
+    private void refill() {
+        long c = counter++;
+        for (int i = 7; i >= 0; i--) {
+            counterBytes[i] = (byte) c;
+            c >>>= 8;
+        }
+        mac.update(counterBytes);
+        try {
+            mac.doFinal(block, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        blockPos = 0;
+    }
+}
@@ -0,0 +1,278 @@
+package steganography;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Direct access to the least significant bit, or the lowest few bits, of every colour
+ * channel of an image.
+ * <p>
+ * Channel positions use the same mapping as the original getRGB/setRGB code: position
+ * {@code idx} addresses pixel {@code idx / 3} (row-major) and channel {@code idx % 3},
+ * where 0 is red, 1 is green and 2 is blue. Positions are 64-bit, since w*h*3 passes
+ * {@code Integer.MAX_VALUE} at about 715 M pixels. Common image types are served straight from
+ * the raster's backing array; anything else falls back to getRGB/setRGB.
+ * <p>
+ * None of the views synchronise. {@link #concurrent()} returns a view on which several
+ * threads may call setLsb at the same time, as long as no two of them write the same
+ * position.
+ */
+abstract class LsbRaster {
+    protected final int width;
+    protected final int height;
+
+    private LsbRaster(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    static LsbRaster of(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+                if (image.getRaster().getDataBuffer() instanceof DataBufferInt) {
+                    return new IntPacked(image);
+                }
+                break;
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                if (image.getRaster().getDataBuffer() instanceof DataBufferByte) {
+                    return new ByteInterleaved(image);
+                }
+                break;
+            default:
+                break;
+        }
+        return new Generic(image);
+    }
+
+    /** Number of addressable channel positions (width * height * 3). */
+    long capacity() {
+        return (long) width * height * 3;
+    }
+
+    abstract int getLsb(long idx);
+
+    abstract void setLsb(long idx, int bit);
+
+    /** The lowest count bits of the channel at idx. */
+    abstract int getBits(long idx, int count);
+
+    /** Replaces the lowest count bits of the channel at idx with value. */
+    abstract void setBits(long idx, int count, int value);
+
+    /**
+     * A view that tolerates concurrent setLsb calls on distinct positions, or null if
+     * writes to this image must stay on one thread.
+     */
+    abstract LsbRaster concurrent();
+
+    // TYPE_INT_RGB / TYPE_INT_ARGB: one int per pixel, red in bits 16-23
+    private static class IntPacked extends LsbRaster {
+        final int[] data;
+        final int offset;
+        final int scanline;
+
+        IntPacked(BufferedImage image) {
+            super(image.getWidth(), image.getHeight());
+            WritableRaster raster = image.getRaster();
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            data = buffer.getData();
+            scanline = sm.getScanlineStride();
+            offset = buffer.getOffset()
+                    - raster.getSampleModelTranslateY() * scanline
+                    - raster.getSampleModelTranslateX();
+        }
+
+        IntPacked(IntPacked other) {
+            super(other.width, other.height);
+            data = other.data;
+            offset = other.offset;
+            scanline = other.scanline;
+        }
+
+        final int element(long pixel) {
+            return offset + (int) (pixel / width) * scanline + (int) (pixel % width);
+        }
+
+        @Override
+        int getLsb(long idx) {
+            int shift = 8 * (2 - (int) (idx % 3));
+            return (data[element(idx / 3)] >> shift) & 1;
+        }
+
+        @Override
+        void setLsb(long idx, int bit) {
+            int shift = 8 * (2 - (int) (idx % 3));
+            int i = element(idx / 3);
+            data[i] = (data[i] & ~(1 << shift)) | (bit << shift);
+        }
+
+        @Override
+        int getBits(long idx, int count) {
+            int shift = 8 * (2 - (int) (idx % 3));
+            return (data[element(idx / 3)] >> shift) & ((1 << count) - 1);
+        }
+
+        @Override
+        void setBits(long idx, int count, int value) {
+            int shift = 8 * (2 - (int) (idx % 3));
+            int i = element(idx / 3);
+            data[i] = (data[i] & ~(((1 << count) - 1) << shift)) | (value << shift);
+        }
+
+        @Override
+        LsbRaster concurrent() {
+            return new AtomicIntPacked(this);
+        }
+    }
+
+    // The three channels of a pixel share one int, so concurrent writers must not
+    // read-modify-write the whole element; flip the single bit atomically instead
+    private static final class AtomicIntPacked extends IntPacked {
+        private static final VarHandle ELEMENTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+        AtomicIntPacked(IntPacked other) {
+            super(other);
+        }
+
+        @Override
+        void setLsb(long idx, int bit) {
+            int mask = 1 << (8 * (2 - (int) (idx % 3)));
+            int i = element(idx / 3);
+            if (bit != 0) {
+                ELEMENTS.getAndBitwiseOr(data, i, mask);
+            } else {
+                ELEMENTS.getAndBitwiseAnd(data, i, ~mask);
+            }
+        }
+
+        // Clearing and then setting is two atomic steps, but other writers only touch other
+        // channels of the element, so nobody can observe the gap
+        @Override
+        void setBits(long idx, int count, int value) {
+            int shift = 8 * (2 - (int) (idx % 3));
+            int i = element(idx / 3);
+            ELEMENTS.getAndBitwiseAnd(data, i, ~(((1 << count) - 1) << shift));
+            ELEMENTS.getAndBitwiseOr(data, i, value << shift);
+        }
+
+        @Override
+        LsbRaster concurrent() {
+            return this;
+        }
+    }
+
+    // TYPE_3BYTE_BGR / TYPE_4BYTE_ABGR: interleaved bytes, band offsets give R, G, B
+    private static final class ByteInterleaved extends LsbRaster {
+        private final byte[] data;
+        private final int offset;
+        private final int scanline;
+        private final int pixelStride;
+        private final int[] bandOffsets;
+
+        ByteInterleaved(BufferedImage image) {
+            super(image.getWidth(), image.getHeight());
+            WritableRaster raster = image.getRaster();
+            DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            data = buffer.getData();
+            scanline = sm.getScanlineStride();
+            pixelStride = sm.getPixelStride();
+            bandOffsets = sm.getBandOffsets();
+            offset = buffer.getOffset()
+                    - raster.getSampleModelTranslateY() * scanline
+                    - raster.getSampleModelTranslateX() * pixelStride;
+        }
+
+        private int element(long idx) {
+            long pixel = idx / 3;
+            return offset + (int) (pixel / width) * scanline + (int) (pixel % width) * pixelStride + bandOffsets[(int) (idx % 3)];
+        }
+
+        @Override
+        int getLsb(long idx) {
+            return data[element(idx)] & 1;
+        }
+
+        @Override
+        void setLsb(long idx, int bit) {
+            int i = element(idx);
+            data[i] = (byte) ((data[i] & 0xFE) | bit);
+        }
+
+        @Override
+        int getBits(long idx, int count) {
+            return data[element(idx)] & ((1 << count) - 1);
+        }
+
+        @Override
+        void setBits(long idx, int count, int value) {
+            int i = element(idx);
+            data[i] = (byte) ((data[i] & ~((1 << count) - 1)) | value);
+        }
+
+        @Override
+        LsbRaster concurrent() {
+            return this; // every channel is its own byte
+        }
+    }
+
+    // Any other layout goes through the ColorModel, exactly like the original code
+    private static final class Generic extends LsbRaster {
+        private final BufferedImage image;
+
+        Generic(BufferedImage image) {
+            super(image.getWidth(), image.getHeight());
+            this.image = image;
+        }
+
+        @Override
+        int getLsb(long idx) {
+            int x = (int) ((idx / 3) % width);
+            int y = (int) ((idx / 3) / width);
+            int pixel = image.getRGB(x, y);
+            return (pixel >> (8 * (2 - (int) (idx % 3)))) & 1;
+        }
+
+        @Override
+        void setLsb(long idx, int bit) {
+            int x = (int) ((idx / 3) % width);
+            int y = (int) ((idx / 3) / width);
+            int shift = 8 * (2 - (int) (idx % 3));
+            int pixel = image.getRGB(x, y);
+            pixel = (pixel & ~(1 << shift)) | (bit << shift);
+            image.setRGB(x, y, pixel);
+        }
+
+        @Override
+        int getBits(long idx, int count) {
+            int x = (int) ((idx / 3) % width);
+            int y = (int) ((idx / 3) / width);
+            int pixel = image.getRGB(x, y);
+            return (pixel >> (8 * (2 - (int) (idx % 3)))) & ((1 << count) - 1);
+        }
+
+        @Override
+        void setBits(long idx, int count, int value) {
+            int x = (int) ((idx / 3) % width);
+            int y = (int) ((idx / 3) / width);
+            int shift = 8 * (2 - (int) (idx % 3));
+            int pixel = image.getRGB(x, y);
+            pixel = (pixel & ~(((1 << count) - 1) << shift)) | (value << shift);
+            image.setRGB(x, y, pixel);
+        }
+
+        @Override
+        LsbRaster concurrent() {
+            return null;
+        }
+    }
+}
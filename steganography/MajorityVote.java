@@ -0,0 +1,57 @@
+package steganography;
+
+/**
+ * Bit-sliced majority voting: bit i of the result is 1 when more than half of the copies
+ * have bit i set, decided for 64 bits at once without branching on any of them. Ties go
+ * to 0, as in the per-bit vote this replaces.
+ */
+final class MajorityVote {
+    /** Enough counter planes for any redundancy up to 255. */
+    private static final int PLANES = 8;
+
+    private MajorityVote() {
+    }
+
+    /** Majority of copies[0..count), 1 <= count <= 255. */
+    static long vote(long[] copies, int count) {
+        switch (count) {
+            case 1:
+                return copies[0];
+            case 2:
+                return copies[0] & copies[1];
+            case 3:
+                return majority3(copies[0], copies[1], copies[2]);
+            default:
+                return threshold(copies, count, count / 2 + 1);
+        }
+    }
+
+    static long majority3(long a, long b, long c) {
+        return (a & b) | (a & c) | (b & c);
+    }
+
+    // Adds the copies into bit-sliced counters (plane p holds bit p of every lane's count),
+    // then compares every lane's count with min, most significant plane first
+    private static long threshold(long[] copies, int count, int min) {
+        long[] planes = new long[PLANES];
+        for (int i = 0; i < count; i++) {
+            long carry = copies[i];
+            for (int p = 0; carry != 0 && p < PLANES; p++) {
+                long next = planes[p] & carry;
+                planes[p] ^= carry;
+                carry = next;
+            }
+        }
+        long greater = 0;
+        long equal = -1L;
+        for (int p = PLANES - 1; p >= 0; p--) {
+            if ((min >>> p & 1) != 0) {
+                equal &= planes[p];
+            } else {
+                greater |= equal & planes[p];
+                equal &= ~planes[p];
+            }
+        }
+        return greater | equal;
+    }
+}
@@ -0,0 +1,190 @@
+package steganography;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Keys in a local append-only file, memory-mapped, with an in-memory hash index from
+ * image ID to record offset built by one scan when the file is opened.
+ * <pre>
+ *   header   "SEQS", int version
+ *   record   int bodyLength, int CRC-32 of body, body
+ *   body     int idLength, image ID (UTF-8), {@link SequenceBlob} of the key, not deflated
+ * </pre>
+ * Saves append a record and never rewrite one; saving an ID again makes the newer record
+ * win. The length is written last, so a record torn by a crash fails its length or CRC
+ * check and everything from it on is ignored and overwritten by the next save.
+ * <p>
+ * Saves reach the page cache, not the disk: they survive the process, and {@link #close()}
+ * forces them out. The file is locked while open, so only one process uses it at a time,
+ * and it is mapped as one buffer, which limits it to 2 GB (tens of millions of keys). The
+ * file grows in doubling steps from 1 MB; the zero padding past the last record reads as
+ * the end of the log.
+ */
+public final class MappedSequenceStore implements SequenceStore {
+    private static final int MAGIC = 0x53455153; // "SEQS"
+    private static final int VERSION = 2; // 1 stored keys as SequenceKey.encode() text
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int INITIAL_SIZE = 1 << 20;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final Map<String, Integer> index = new HashMap<>();
+    private MappedByteBuffer buffer;
+    private int end;
+
+    public MappedSequenceStore(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        try {
+            this.lock = lock(channel, file);
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is larger than 2 GB");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, INITIAL_SIZE));
+            if (size == 0) {
+                buffer.putInt(0, MAGIC).putInt(4, VERSION);
+                end = HEADER_BYTES;
+            } else if (size < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a sequence store");
+            } else if (buffer.getInt(4) != VERSION) {
+                throw new IOException(file + " is sequence store version " + buffer.getInt(4) + ", not " + VERSION);
+            } else {
+                end = scan();
+            }
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void save(String imageId, SequenceKey key) throws IOException {
+        checkOpen();
+        byte[] id = imageId.getBytes(StandardCharsets.UTF_8);
+        byte[] blob = SequenceBlob.encode(key, false);
+        long bodyLength = 4L + id.length + blob.length;
+        ensureCapacity(end + RECORD_HEADER_BYTES + bodyLength);
+
+        int body = end + RECORD_HEADER_BYTES;
+        buffer.putInt(body, id.length).put(body + 4, id).put(body + 4 + id.length, blob);
+        buffer.putInt(end + 4, (int) crc(body, (int) bodyLength));
+        buffer.putInt(end, (int) bodyLength);
+        index.put(imageId, end);
+        end = body + (int) bodyLength;
+    }
+
+    @Override
+    public synchronized SequenceKey find(String imageId) throws IOException {
+        checkOpen();
+        Integer record = index.get(imageId);
+        if (record == null) {
+            return null;
+        }
+        int body = record + RECORD_HEADER_BYTES;
+        int blobStart = body + 4 + buffer.getInt(body);
+        byte[] blob = new byte[body + buffer.getInt(record) - blobStart];
+        buffer.get(blobStart, blob);
+        return SequenceBlob.decode(new ByteArrayInputStream(blob));
+    }
+
+    /** Number of distinct image IDs stored. */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /** Forces saved records to disk. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            buffer.force();
+            buffer = null;
+        } finally {
+            lock.release();
+            raf.close();
+        }
+    }
+
+    // Builds the index and returns where the next record goes: after the last intact one
+    private int scan() {
+        int pos = HEADER_BYTES;
+        while (pos <= buffer.capacity() - RECORD_HEADER_BYTES) {
+            int length = buffer.getInt(pos);
+            int body = pos + RECORD_HEADER_BYTES;
+            if (length < 4 || length > buffer.capacity() - body || buffer.getInt(pos + 4) != (int) crc(body, length)) {
+                break;
+            }
+            int idLength = buffer.getInt(body);
+            if (idLength < 0 || idLength > length - 4) {
+                break;
+            }
+            index.put(string(body + 4, idLength), pos);
+            pos = body + length;
+        }
+        return pos;
+    }
+
+    // Grows the mapping by doubling; the old mapping is released once unreachable
+    private void ensureCapacity(long needed) throws IOException {
+        if (needed <= buffer.capacity()) {
+            return;
+        }
+        if (needed > Integer.MAX_VALUE) {
+            throw new IOException(file + " would grow past 2 GB");
+        }
+        long capacity = buffer.capacity();
+        while (capacity < needed) {
+            capacity *= 2;
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(capacity, Integer.MAX_VALUE));
+    }
+
+    private static FileLock lock(FileChannel channel, File file) throws IOException {
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null; // already open in this JVM
+        }
+        if (lock == null) {
+            throw new IOException(file + " is already open in another store");
+        }
+        return lock;
+    }
+
+    private long crc(int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset, length));
+        return crc.getValue();
+    }
+
+    private String string(int offset, int length) {
+        ByteBuffer bytes = buffer.slice(offset, length);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    private void checkOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException(file + " is closed");
+        }
+    }
+}
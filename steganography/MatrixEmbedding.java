@@ -0,0 +1,77 @@
+package steganography;
+
+/**
+ * F5-style matrix embedding with the binary Hamming code: k message bits are carried by a
+ * group of {@code n = 2^k - 1} consecutive sequence positions and read back as the
+ * syndrome of their LSBs, the XOR of {@code j + 1} over every slot j whose LSB is 1.
+ * Embedding flips at most one LSB per group (slot {@code syndrome ^ message} - 1), so a
+ * group changes n/(n+1) times less often than plain LSB replacement would for its k bits.
+ * <p>
+ * A single flipped LSB garbles the whole group, so this trades robustness for fewer
+ * modifications; combine it with {@link Fec} rather than repetition.
+ */
+final class MatrixEmbedding {
+    static final int MIN_BITS = 2;
+    static final int MAX_BITS = 8;
+
+    private MatrixEmbedding() {
+    }
+
+    /** Sequence positions per group for k message bits. */
+    static int groupSize(int k) {
+        return (1 << k) - 1;
+    }
+
+    /** Sequence positions needed for bitCount message bits. */
+    static long positions(long bitCount, int k) {
+        return (bitCount + k - 1) / k * groupSize(k);
+    }
+
+    /**
+     * Embeds every bit from bits in groups starting at sequence index dataIdx; a short last
+     * group is padded with 0 bits. Returns the next free sequence index.
+     */
+    static long write(LsbRaster raster, PositionSequence prSequence, long dataIdx, BitReader bits, int k) {
+        int n = groupSize(k);
+        long end = prSequence.length();
+        while (bits.hasNext()) {
+            if (dataIdx + n > end) return dataIdx;
+
+            int message = 0;
+            for (int i = 0; i < k; i++) {
+                message = (message << 1) | (bits.hasNext() ? bits.readBit() : 0);
+            }
+            int flip = syndrome(raster, prSequence, dataIdx, n) ^ message;
+            if (flip != 0) {
+                long position = prSequence.position(dataIdx + flip - 1);
+                raster.setLsb(position, raster.getLsb(position) ^ 1);
+            }
+            dataIdx += n;
+        }
+        return dataIdx;
+    }
+
+    /** Reads bitCount message bits from groups starting at sequence index dataIdx. */
+    static void read(LsbRaster raster, PositionSequence prSequence, long dataIdx, BitWriter out, long bitCount, int k) {
+        int n = groupSize(k);
+        long end = prSequence.length();
+        for (long i = 0; i < bitCount && dataIdx + n <= end; i += k) {
+            int message = syndrome(raster, prSequence, dataIdx, n);
+            int take = (int) Math.min(k, bitCount - i);
+            for (int b = k - 1; b >= k - take; b--) {
+                out.writeBit((message >>> b) & 1);
+            }
+            dataIdx += n;
+        }
+    }
+
+    private static int syndrome(LsbRaster raster, PositionSequence prSequence, long dataIdx, int n) {
+        int s = 0;
+        for (int j = 0; j < n; j++) {
+            if (raster.getLsb(prSequence.position(dataIdx + j)) != 0) {
+                s ^= j + 1;
+            }
+        }
+        return s;
+    }
+}
@@ -0,0 +1,28 @@
+package steganography;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Keys in a hash map, gone when the process exits; for tests, benchmarks and throwaway sessions. */
+public final class MemorySequenceStore implements SequenceStore {
+    private final Map<String, SequenceKey> keys = new ConcurrentHashMap<>();
+
+    @Override
+    public void save(String imageId, SequenceKey key) {
+        keys.put(imageId, key);
+    }
+
+    @Override
+    public SequenceKey find(String imageId) {
+        return keys.get(imageId);
+    }
+
+    /** Number of stored keys. */
+    public int size() {
+        return keys.size();
+    }
+
+    @Override
+    public void close() {
+    }
+}
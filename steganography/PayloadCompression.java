@@ -0,0 +1,79 @@
+package steganography;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional Deflate stage ahead of error correction. The stored form is the original
+ * length (4 bytes, big-endian) followed by a raw Deflate stream; the zlib wrapper is left
+ * out since its checksum would only duplicate what {@link Fec} already guards.
+ */
+final class PayloadCompression {
+    private static final int LENGTH_BYTES = 4;
+    /** Deflate cannot expand data by more than about 1032:1. */
+    private static final int MAX_RATIO = 1032;
+
+    private PayloadCompression() {
+    }
+
+    /** The stored form of payload, or null if compressing it would not save anything. */
+    static byte[] compress(byte[] payload) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            // Anything at least as large as the input is useless, so stop there
+            byte[] out = new byte[payload.length];
+            int pos = LENGTH_BYTES;
+            while (!deflater.finished() && pos < out.length) {
+                pos += deflater.deflate(out, pos, out.length - pos);
+            }
+            if (!deflater.finished()) {
+                return null;
+            }
+            out[0] = (byte) (payload.length >>> 24);
+            out[1] = (byte) (payload.length >>> 16);
+            out[2] = (byte) (payload.length >>> 8);
+            out[3] = (byte) payload.length;
+            byte[] result = new byte[pos];
+            System.arraycopy(out, 0, result, 0, pos);
+            return result;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Restores the payload from its stored form. */
+    static byte[] decompress(byte[] stored) {
+        if (stored.length < LENGTH_BYTES) {
+            throw new IllegalArgumentException("Compressed payload is truncated");
+        }
+        int length = ((stored[0] & 0xFF) << 24) | ((stored[1] & 0xFF) << 16)
+                | ((stored[2] & 0xFF) << 8) | (stored[3] & 0xFF);
+        if (length < 0 || length > (long) stored.length * MAX_RATIO) {
+            throw new IllegalArgumentException("Compressed payload is corrupt");
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(stored, LENGTH_BYTES, stored.length - LENGTH_BYTES);
+            byte[] out = new byte[length];
+            int pos = 0;
+            while (pos < length && !inflater.finished()) {
+                int n = inflater.inflate(out, pos, length - pos);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                pos += n;
+            }
+            if (pos != length) {
+                throw new IllegalArgumentException("Compressed payload is corrupt");
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Compressed payload is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
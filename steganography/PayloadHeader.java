@@ -0,0 +1,175 @@
+package steganography;
+
+/**
+ * Header embedded ahead of every payload.
+ * <pre>
+ *   byte 0     magic 'S'
+ *   byte 1     format version
+ *   byte 2     flags, see {@link #FLAG_MATRIX} and {@link #FLAG_COMPRESSED}
+ *   byte 3     redundancy: copies of each coded bit (1 with matrix embedding)
+ *   bytes 4-7  stored payload length in bytes (after compression), big-endian
+ *   -- version 2 and later --
+ *   byte 8     forward error correction, see {@link Fec}
+ *   byte 9     matrix embedding: message bits per group, 0 when off
+ *   -- version 3 and later --
+ *   byte 10    payload bits per channel position, 1 to {@link #MAX_LSB_BITS}
+ *   byte 11    reserved, 0
+ * </pre>
+ * Version 1 headers stop after byte 7 and imply {@link Fec#NONE}; in version 2 bytes 10
+ * and 11 are reserved and one bit is stored per position. The header itself is
+ * always written with {@link #HEADER_REDUNDANCY} copies per bit, one bit per position, so it can be read before
+ * anything else about the payload is known; readers take the first {@link #BASE_BYTES}
+ * bytes, then look at the version to see how many follow.
+ */
+final class PayloadHeader {
+    static final int MAGIC = 'S';
+    static final int VERSION = 3;
+    /** Bytes common to every version. */
+    static final int BASE_BYTES = 8;
+    static final int HEADER_REDUNDANCY = 3;
+    /** Number of sequence positions the common part occupies. */
+    static final int BASE_POSITIONS = BASE_BYTES * 8 * HEADER_REDUNDANCY;
+    /** Coded bits are carried by {@link MatrixEmbedding} groups instead of repetition. */
+    static final int FLAG_MATRIX = 0x01;
+    /** The stored payload is {@link PayloadCompression} output. */
+    static final int FLAG_COMPRESSED = 0x02;
+    /** Most low bits of a channel the payload may replace. */
+    static final int MAX_LSB_BITS = 4;
+
+    final int version;
+    final int flags;
+    final int redundancy;
+    final int length;
+    final Fec fec;
+    final int matrixBits;
+    /** Coded bits stored in each channel position, in its lowest bits. */
+    final int lsbBits;
+
+    PayloadHeader(int flags, int redundancy, int length, Fec fec) {
+        this(VERSION, flags, redundancy, length, fec, 0, 1);
+    }
+
+    /** With matrixBits &gt; 0 the payload is matrix embedded; redundancy is then recorded as 1. */
+    PayloadHeader(int flags, int redundancy, int length, Fec fec, int matrixBits) {
+        this(flags, redundancy, length, fec, matrixBits, 1);
+    }
+
+    /** As above, storing lsbBits coded bits per position; matrix embedding needs 1. */
+    PayloadHeader(int flags, int redundancy, int length, Fec fec, int matrixBits, int lsbBits) {
+        this(VERSION, matrixBits > 0 ? flags | FLAG_MATRIX : flags, matrixBits > 0 ? 1 : redundancy, length, fec,
+                matrixBits, lsbBits);
+    }
+
+    private PayloadHeader(int version, int flags, int redundancy, int length, Fec fec, int matrixBits, int lsbBits) {
+        this.version = version;
+        this.flags = flags;
+        this.redundancy = redundancy;
+        this.length = length;
+        this.fec = fec;
+        this.matrixBits = matrixBits;
+        this.lsbBits = lsbBits;
+    }
+
+    /** Size of a header of the given version, or -1 for versions this build cannot read. */
+    static int sizeBytes(int version) {
+        switch (version) {
+            case 1:
+                return BASE_BYTES;
+            case 2:
+            case 3:
+                return BASE_BYTES + 4;
+            default:
+                return -1;
+        }
+    }
+
+    /** Sequence positions the header occupies. */
+    int positions() {
+        return sizeBytes(version) * 8 * HEADER_REDUNDANCY;
+    }
+
+    /** Bits the payload takes after error correction coding. */
+    long codedBits() {
+        return fec.codec().encodedBits(length);
+    }
+
+    boolean isMatrix() {
+        return (flags & FLAG_MATRIX) != 0;
+    }
+
+    boolean isCompressed() {
+        return (flags & FLAG_COMPRESSED) != 0;
+    }
+
+    /** Sequence positions needed for the header plus the payload it describes. */
+    long totalPositions() {
+        if (isMatrix()) {
+            return positions() + MatrixEmbedding.positions(codedBits(), matrixBits);
+        }
+        return positions() + (codedBits() + lsbBits - 1) / lsbBits * redundancy;
+    }
+
+    byte[] toBytes() {
+        byte[] bytes = new byte[sizeBytes(version)];
+        bytes[0] = (byte) MAGIC;
+        bytes[1] = (byte) version;
+        bytes[2] = (byte) flags;
+        bytes[3] = (byte) redundancy;
+        bytes[4] = (byte) (length >>> 24);
+        bytes[5] = (byte) (length >>> 16);
+        bytes[6] = (byte) (length >>> 8);
+        bytes[7] = (byte) length;
+        if (version >= 2) {
+            bytes[8] = (byte) fec.id;
+            bytes[9] = (byte) matrixBits;
+        }
+        if (version >= 3) {
+            bytes[10] = (byte) lsbBits;
+        }
+        return bytes;
+    }
+
+    /**
+     * Size of the header that starts with base, or -1 if base does not start one of ours.
+     */
+    static int sizeBytes(byte[] base) {
+        if ((base[0] & 0xFF) != MAGIC) {
+            return -1;
+        }
+        return sizeBytes(base[1] & 0xFF);
+    }
+
+    /**
+     * Parses a complete header read from an image, or returns null if the bytes do not look
+     * like one of ours (wrong magic/version, unknown error correction, nonsensical
+     * redundancy, matrix or bit depth parameters, or a payload that could not fit into
+     * {@code availablePositions}).
+     */
+    static PayloadHeader parse(byte[] bytes, long availablePositions) {
+        int size = sizeBytes(bytes);
+        if (size < 0 || bytes.length < size) {
+            return null;
+        }
+        int version = bytes[1] & 0xFF;
+        int redundancy = bytes[3] & 0xFF;
+        int length = ((bytes[4] & 0xFF) << 24) | ((bytes[5] & 0xFF) << 16)
+                | ((bytes[6] & 0xFF) << 8) | (bytes[7] & 0xFF);
+        int flags = bytes[2] & 0xFF;
+        Fec fec = version >= 2 ? Fec.fromId(bytes[8] & 0xFF) : Fec.NONE;
+        int matrixBits = version >= 2 ? bytes[9] & 0xFF : 0;
+        int lsbBits = version >= 3 ? bytes[10] & 0xFF : 1;
+        if (redundancy < 1 || length < 0 || fec == null || lsbBits < 1 || lsbBits > MAX_LSB_BITS) {
+            return null;
+        }
+        boolean matrix = (flags & FLAG_MATRIX) != 0;
+        if (matrix != (matrixBits != 0)
+                || matrix && (matrixBits < MatrixEmbedding.MIN_BITS || matrixBits > MatrixEmbedding.MAX_BITS || lsbBits != 1)) {
+            return null;
+        }
+        PayloadHeader header = new PayloadHeader(version, flags, redundancy, length, fec, matrixBits, lsbBits);
+        if (header.totalPositions() > availablePositions) {
+            return null;
+        }
+        return header;
+    }
+}
@@ -0,0 +1,539 @@
+package steganography;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * PNG reader and writer for the stego pipeline, faster than ImageIO for the images this
+ * package produces: 8-bit RGB or RGBA, not interlaced.
+ * <p>
+ * The writer splits the filtered rows into blocks of about {@link #BLOCK_BYTES} and
+ * deflates them independently on a {@link ForkJoinPool}, the way pigz does. Each block
+ * is primed with the preceding 32 KB as a preset dictionary and ends on a sync flush, so
+ * the concatenation is a single valid zlib stream whose Adler-32 is combined from the
+ * per-block checksums. Compressed blocks are written in order as soon as they are ready.
+ * <p>
+ * The reader inflates and unfilters rows straight into the int[] behind a TYPE_INT_RGB or
+ * TYPE_INT_ARGB image. Anything else (palette, grey, 16-bit, interlaced) makes it return
+ * null, and callers fall back to ImageIO.
+ */
+final class PngCodec {
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int COLOR_RGB = 2;
+    private static final int COLOR_RGBA = 6;
+    /** Uncompressed bytes per independently deflated block. */
+    static final int BLOCK_BYTES = 512 * 1024;
+    private static final int DICTIONARY_BYTES = 32 * 1024;
+
+    private PngCodec() {
+    }
+
+    /**
+     * Writes image as PNG. level is a {@link Deflater} level (0-9, or -1 for the default);
+     * a null pool compresses on the calling thread.
+     */
+    static void write(BufferedImage image, OutputStream out, int level, PngFilter filter, ForkJoinPool pool) throws IOException {
+        Rows rows = new Rows(image);
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        out.write(SIGNATURE);
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, width);
+        putInt(ihdr, 4, height);
+        ihdr[8] = 8;
+        ihdr[9] = (byte) (rows.alpha ? COLOR_RGBA : COLOR_RGB);
+        writeChunk(out, "IHDR", ihdr, 0, ihdr.length);
+
+        // zlib header: deflate with a 32 KB window, FLEVEL from the level, FCHECK to make it a multiple of 31
+        int flevel = level == 0 || level == 1 ? 0 : level >= 2 && level <= 5 ? 1 : level == 9 ? 3 : 2;
+        int cmf = 0x78;
+        int flg = flevel << 6;
+        flg += 31 - (cmf * 256 + flg) % 31;
+        writeChunk(out, "IDAT", new byte[]{(byte) cmf, (byte) flg}, 0, 2);
+
+        int rowsPerBlock = Math.max(1, BLOCK_BYTES / rows.filteredBytes);
+        List<BlockTask> blocks = new ArrayList<>();
+        for (int y = 0; y < height; y += rowsPerBlock) {
+            BlockTask block = new BlockTask(rows, y, Math.min(height, y + rowsPerBlock), level, filter);
+            blocks.add(block);
+            if (pool != null) {
+                pool.execute(block);
+            }
+        }
+        long adler = 1;
+        for (BlockTask block : blocks) {
+            if (pool == null) {
+                block.invoke();
+            } else {
+                block.join();
+            }
+            writeChunk(out, "IDAT", block.compressed, 0, block.compressedLength);
+            block.compressed = null;
+            adler = adler32Combine(adler, block.adler, block.length);
+        }
+
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) adler);
+        writeChunk(out, "IDAT", trailer, 0, 4);
+        writeChunk(out, "IEND", new byte[0], 0, 0);
+        out.flush();
+    }
+
+    /**
+     * Decodes an 8-bit, non-interlaced RGB or RGBA PNG into a TYPE_INT_RGB or TYPE_INT_ARGB
+     * image, or returns null if in holds anything else. Reads in to the end of the image data.
+     */
+    static BufferedImage read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] signature = new byte[SIGNATURE.length];
+        try {
+            data.readFully(signature);
+        } catch (EOFException e) {
+            return null;
+        }
+        for (int i = 0; i < SIGNATURE.length; i++) {
+            if (signature[i] != SIGNATURE[i]) {
+                return null;
+            }
+        }
+        int length = data.readInt();
+        if (data.readInt() != chunkType("IHDR") || length != 13) {
+            return null;
+        }
+        int width = data.readInt();
+        int height = data.readInt();
+        int bitDepth = data.readUnsignedByte();
+        int colorType = data.readUnsignedByte();
+        int compression = data.readUnsignedByte();
+        int filterMethod = data.readUnsignedByte();
+        int interlace = data.readUnsignedByte();
+        data.readInt(); // CRC
+        if (bitDepth != 8 || (colorType != COLOR_RGB && colorType != COLOR_RGBA)
+                || compression != 0 || filterMethod != 0 || interlace != 0
+                || width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE - 8) {
+            return null;
+        }
+
+        boolean alpha = colorType == COLOR_RGBA;
+        int bpp = alpha ? 4 : 3;
+        BufferedImage image = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        byte[] prev = new byte[width * bpp];
+        byte[] cur = new byte[width * bpp];
+        try (InputStream inflated = new InflaterInputStream(new IdatStream(data), new Inflater(), 64 * 1024)) {
+            DataInputStream rows = new DataInputStream(inflated);
+            for (int y = 0, p = 0; y < height; y++) {
+                int type = rows.readUnsignedByte();
+                rows.readFully(cur);
+                unfilter(type, cur, prev, bpp);
+                if (alpha) {
+                    for (int i = 0; i < cur.length; i += 4) {
+                        pixels[p++] = (cur[i + 3] & 0xFF) << 24 | (cur[i] & 0xFF) << 16 | (cur[i + 1] & 0xFF) << 8 | (cur[i + 2] & 0xFF);
+                    }
+                } else {
+                    for (int i = 0; i < cur.length; i += 3) {
+                        pixels[p++] = (cur[i] & 0xFF) << 16 | (cur[i + 1] & 0xFF) << 8 | (cur[i + 2] & 0xFF);
+                    }
+                }
+                byte[] t = prev;
+                prev = cur;
+                cur = t;
+            }
+        }
+        return image;
+    }
+
+    // Reverses the row filter in place; prev holds the previous unfiltered row (zeros for the first)
+    private static void unfilter(int type, byte[] cur, byte[] prev, int bpp) throws IOException {
+        int n = cur.length;
+        switch (type) {
+            case 0:
+                break;
+            case 1:
+                for (int i = bpp; i < n; i++) {
+                    cur[i] = (byte) (cur[i] + cur[i - bpp]);
+                }
+                break;
+            case 2:
+                for (int i = 0; i < n; i++) {
+                    cur[i] = (byte) (cur[i] + prev[i]);
+                }
+                break;
+            case 3:
+                for (int i = 0; i < bpp; i++) {
+                    cur[i] = (byte) (cur[i] + ((prev[i] & 0xFF) >>> 1));
+                }
+                for (int i = bpp; i < n; i++) {
+                    cur[i] = (byte) (cur[i] + (((cur[i - bpp] & 0xFF) + (prev[i] & 0xFF)) >>> 1));
+                }
+                break;
+            case 4:
+                for (int i = 0; i < bpp; i++) {
+                    cur[i] = (byte) (cur[i] + prev[i]);
+                }
+                for (int i = bpp; i < n; i++) {
+                    cur[i] = (byte) (cur[i] + paeth(cur[i - bpp] & 0xFF, prev[i] & 0xFF, prev[i - bpp] & 0xFF));
+                }
+                break;
+            default:
+                throw new IOException("Bad PNG filter type " + type);
+        }
+    }
+
+    // Writes the filtered form of raw into out[1..], with the filter type in out[0]
+    private static void filter(int type, byte[] raw, byte[] prev, int bpp, byte[] out) {
+        int n = raw.length;
+        out[0] = (byte) type;
+        switch (type) {
+            case 0:
+                System.arraycopy(raw, 0, out, 1, n);
+                break;
+            case 1:
+                for (int i = 0; i < n; i++) {
+                    out[i + 1] = (byte) (raw[i] - (i >= bpp ? raw[i - bpp] : 0));
+                }
+                break;
+            case 2:
+                for (int i = 0; i < n; i++) {
+                    out[i + 1] = (byte) (raw[i] - prev[i]);
+                }
+                break;
+            case 3:
+                for (int i = 0; i < n; i++) {
+                    int left = i >= bpp ? raw[i - bpp] & 0xFF : 0;
+                    out[i + 1] = (byte) (raw[i] - ((left + (prev[i] & 0xFF)) >>> 1));
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    int left = i >= bpp ? raw[i - bpp] & 0xFF : 0;
+                    int upLeft = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+                    out[i + 1] = (byte) (raw[i] - paeth(left, prev[i] & 0xFF, upLeft));
+                }
+                break;
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private static long residual(byte[] filtered) {
+        long sum = 0;
+        for (int i = 1; i < filtered.length; i++) {
+            sum += Math.abs((int) filtered[i]);
+        }
+        return sum;
+    }
+
+    // zlib's adler32_combine: the checksum of A followed by B from those of A and B
+    static long adler32Combine(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = rem * sum1 % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + base - rem;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= base << 1) sum2 -= base << 1;
+        if (sum2 >= base) sum2 -= base;
+        return sum2 << 16 | sum1;
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int offset, int length) throws IOException {
+        byte[] head = new byte[8];
+        putInt(head, 0, length);
+        putInt(head, 4, chunkType(type));
+        CRC32 crc = new CRC32();
+        crc.update(head, 4, 4);
+        crc.update(data, offset, length);
+        byte[] tail = new byte[4];
+        putInt(tail, 0, (int) crc.getValue());
+        out.write(head);
+        out.write(data, offset, length);
+        out.write(tail);
+    }
+
+    private static int chunkType(String type) {
+        return type.charAt(0) << 24 | type.charAt(1) << 16 | type.charAt(2) << 8 | type.charAt(3);
+    }
+
+    private static void putInt(byte[] b, int offset, int v) {
+        b[offset] = (byte) (v >>> 24);
+        b[offset + 1] = (byte) (v >>> 16);
+        b[offset + 2] = (byte) (v >>> 8);
+        b[offset + 3] = (byte) v;
+    }
+
+    /** Raw RGB(A) rows of an image, read straight from the backing array where possible. */
+    private static final class Rows {
+        final BufferedImage image;
+        final boolean alpha;
+        final int bpp;
+        final int rawBytes;
+        final int filteredBytes;
+        private final int[] ints;
+        private final byte[] bytes;
+        private final int offset;
+        private final int scanline;
+        private final int pixelStride;
+        private final int[] bandOffsets;
+
+        Rows(BufferedImage image) {
+            this.image = image;
+            alpha = image.getColorModel().hasAlpha();
+            bpp = alpha ? 4 : 3;
+            rawBytes = image.getWidth() * bpp;
+            filteredBytes = rawBytes + 1;
+            WritableRaster raster = image.getRaster();
+            int type = image.getType();
+            if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                    && raster.getDataBuffer() instanceof DataBufferInt) {
+                DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+                scanline = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+                ints = buffer.getData();
+                bytes = null;
+                pixelStride = 1;
+                bandOffsets = null;
+                offset = buffer.getOffset() - raster.getSampleModelTranslateY() * scanline - raster.getSampleModelTranslateX();
+            } else if ((type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)
+                    && raster.getDataBuffer() instanceof DataBufferByte) {
+                DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+                ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+                scanline = sm.getScanlineStride();
+                pixelStride = sm.getPixelStride();
+                bandOffsets = sm.getBandOffsets();
+                ints = null;
+                bytes = buffer.getData();
+                offset = buffer.getOffset() - raster.getSampleModelTranslateY() * scanline - raster.getSampleModelTranslateX() * pixelStride;
+            } else {
+                ints = null;
+                bytes = null;
+                offset = scanline = pixelStride = 0;
+                bandOffsets = null;
+            }
+        }
+
+        // Safe to call from several threads at once
+        void row(int y, byte[] out) {
+            int width = image.getWidth();
+            if (bytes != null) {
+                int base = offset + y * scanline;
+                for (int x = 0, o = 0; x < width; x++, base += pixelStride) {
+                    out[o++] = bytes[base + bandOffsets[0]];
+                    out[o++] = bytes[base + bandOffsets[1]];
+                    out[o++] = bytes[base + bandOffsets[2]];
+                    if (alpha) {
+                        out[o++] = bytes[base + bandOffsets[3]];
+                    }
+                }
+                return;
+            }
+            int[] argb;
+            int base;
+            if (ints != null) {
+                argb = ints;
+                base = offset + y * scanline;
+            } else {
+                argb = image.getRGB(0, y, width, 1, null, 0, width);
+                base = 0;
+            }
+            for (int x = 0, o = 0; x < width; x++) {
+                int v = argb[base + x];
+                out[o++] = (byte) (v >>> 16);
+                out[o++] = (byte) (v >>> 8);
+                out[o++] = (byte) v;
+                if (alpha) {
+                    out[o++] = (byte) (v >>> 24);
+                }
+            }
+        }
+    }
+
+    // Filters and deflates rows [from, to); the output is a byte-aligned piece of one zlib stream
+    private static final class BlockTask extends ForkJoinTask<Void> {
+        private final Rows rows;
+        private final int from;
+        private final int to;
+        private final int level;
+        private final PngFilter filter;
+        byte[] compressed;
+        int compressedLength;
+        long adler;
+        long length;
+
+        BlockTask(Rows rows, int from, int to, int level, PngFilter filter) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.level = level;
+            this.filter = filter;
+        }
+
+        @Override
+        protected boolean exec() {
+            int rowBytes = rows.filteredBytes;
+            // Re-filter enough rows before the block to rebuild the 32 KB the previous block ended with
+            int dictionaryRows = Math.min(from, (DICTIONARY_BYTES + rowBytes - 1) / rowBytes);
+            int first = from - dictionaryRows;
+            byte[] filtered = new byte[(to - first) * rowBytes];
+            byte[] prev = new byte[rows.rawBytes];
+            byte[] raw = new byte[rows.rawBytes];
+            byte[] candidate = new byte[rowBytes];
+            byte[] best = new byte[rowBytes];
+            if (first > 0) {
+                rows.row(first - 1, prev);
+            }
+            for (int y = first; y < to; y++) {
+                rows.row(y, raw);
+                if (filter == PngFilter.ADAPTIVE) {
+                    long bestSum = Long.MAX_VALUE;
+                    for (int type = 0; type <= 4; type++) {
+                        filter(type, raw, prev, rows.bpp, candidate);
+                        long sum = residual(candidate);
+                        if (sum < bestSum) {
+                            bestSum = sum;
+                            byte[] t = best;
+                            best = candidate;
+                            candidate = t;
+                        }
+                    }
+                } else {
+                    filter(filter.type, raw, prev, rows.bpp, best);
+                }
+                System.arraycopy(best, 0, filtered, (y - first) * rowBytes, rowBytes);
+                byte[] t = prev;
+                prev = raw;
+                raw = t;
+            }
+
+            int start = dictionaryRows * rowBytes;
+            length = filtered.length - start;
+            Adler32 checksum = new Adler32();
+            checksum.update(filtered, start, (int) length);
+            adler = checksum.getValue();
+
+            Deflater deflater = new Deflater(level, true);
+            try {
+                if (start > 0) {
+                    int dictionary = Math.min(start, DICTIONARY_BYTES);
+                    deflater.setDictionary(filtered, start - dictionary, dictionary);
+                }
+                deflater.setInput(filtered, start, (int) length);
+                boolean last = to == rows.image.getHeight();
+                if (last) {
+                    deflater.finish();
+                }
+                byte[] out = new byte[(int) Math.min(Integer.MAX_VALUE - 8, length + length / 1000 + 64)];
+                int pos = 0;
+                while (true) {
+                    pos += deflater.deflate(out, pos, out.length - pos, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                    boolean done = last ? deflater.finished() : pos < out.length && deflater.needsInput();
+                    if (done) {
+                        break;
+                    }
+                    if (pos == out.length) {
+                        out = Arrays.copyOf(out, out.length * 2);
+                    }
+                }
+                compressed = out;
+                compressedLength = pos;
+            } finally {
+                deflater.end();
+            }
+            return true;
+        }
+
+        @Override
+        public Void getRawResult() {
+            return null;
+        }
+
+        @Override
+        protected void setRawResult(Void value) {
+        }
+    }
+
+    // The concatenated payloads of every IDAT chunk; other chunks are skipped, and IEND ends the stream
+    private static final class IdatStream extends InputStream {
+        private static final int IDAT = chunkType("IDAT");
+        private static final int IEND = chunkType("IEND");
+        private final DataInputStream in;
+        private int remaining;
+        private boolean done;
+
+        IdatStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        private boolean next() throws IOException {
+            while (remaining == 0) {
+                if (done) {
+                    return false;
+                }
+                int length = in.readInt();
+                int type = in.readInt();
+                if (type == IDAT) {
+                    remaining = length;
+                    if (length == 0) {
+                        in.readInt(); // CRC
+                    }
+                } else {
+                    in.skipNBytes(length + 4L);
+                    done = type == IEND;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!next()) {
+                return -1;
+            }
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n < 0) {
+                throw new EOFException("Truncated PNG");
+            }
+            remaining -= n;
+            if (remaining == 0) {
+                in.readInt(); // CRC
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package steganography;
+
+/**
+ * PNG row filter used when writing stego images. {@link #ADAPTIVE} tries all five
+ * filters on every row and keeps the one with the smallest sum of absolute residuals,
+ * the usual heuristic; the fixed filters are cheaper and sometimes compress about as well.
+ */
+public enum PngFilter {
+    NONE(0),
+    SUB(1),
+    UP(2),
+    AVERAGE(3),
+    PAETH(4),
+    ADAPTIVE(-1);
+
+    /** Filter type byte written ahead of each row, -1 for the per-row choice. */
+    final int type;
+
+    PngFilter(int type) {
+        this.type = type;
+    }
+}
@@ -0,0 +1,23 @@
+package steganography;
+
+/**
+ * Ordered list of distinct channel positions that payload bits are written to.
+ * Implementations may compute positions on demand instead of holding them in memory.
+ */
+interface PositionSequence {
+    long length();
+
+    /** The channel position for the i-th payload slot, 0 <= i < length(). */
+    long position(long i);
+
+    /**
+     * Positions of slots from to from + count - 1 into out[0..count). Filling a batch up
+     * front lets the caller's LSB reads run back to back instead of waiting on each
+     * position in turn.
+     */
+    default void positions(long from, long[] out, int count) {
+        for (int i = 0; i < count; i++) {
+            out[i] = position(from + i);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package steganography;
+
+import java.util.Arrays;
+
+/**
+ * Reed-Solomon RS(255,223) over GF(2^8) (primitive polynomial 0x11d, first consecutive
+ * root alpha^0). Data is cut into blocks of up to 223 bytes and each block gets 32 parity
+ * bytes, correcting up to 16 corrupted bytes per block. The last block is shortened
+ * rather than padded, so the overhead is 32 bytes per started block.
+ */
+final class ReedSolomon implements ErrorCorrection {
+    static final int PARITY = 32;
+    static final int BLOCK_DATA = 255 - PARITY;
+
+    private static final int[] EXP = new int[512];
+    private static final int[] LOG = new int[256];
+    private static final int[] GENERATOR;
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) {
+                x ^= 0x11d;
+            }
+        }
+        for (int i = 255; i < EXP.length; i++) {
+            EXP[i] = EXP[i - 255];
+        }
+        // g(x) = (x - a^0)(x - a^1)...(x - a^31), highest degree first
+        int[] g = {1};
+        for (int i = 0; i < PARITY; i++) {
+            int[] next = new int[g.length + 1];
+            for (int j = 0; j < g.length; j++) {
+                next[j] ^= g[j];
+                next[j + 1] ^= mul(g[j], EXP[i]);
+            }
+            g = next;
+        }
+        GENERATOR = g;
+    }
+
+    @Override
+    public long encodedBits(int dataBytes) {
+        return 8L * encodedBytes(dataBytes);
+    }
+
+    static long encodedBytes(int dataBytes) {
+        long blocks = (dataBytes + (long) BLOCK_DATA - 1) / BLOCK_DATA;
+        return dataBytes + blocks * PARITY;
+    }
+
+    @Override
+    public byte[] encode(byte[] data) {
+        byte[] out = new byte[(int) encodedBytes(data.length)];
+        int outPos = 0;
+        int[] parity = new int[PARITY];
+        for (int start = 0; start < data.length; start += BLOCK_DATA) {
+            int len = Math.min(BLOCK_DATA, data.length - start);
+            Arrays.fill(parity, 0);
+            // Systematic encoding: parity = data(x) * x^32 mod g(x), via an LFSR
+            for (int i = 0; i < len; i++) {
+                int feedback = (data[start + i] & 0xFF) ^ parity[0];
+                System.arraycopy(parity, 1, parity, 0, PARITY - 1);
+                parity[PARITY - 1] = 0;
+                if (feedback != 0) {
+                    for (int j = 0; j < PARITY; j++) {
+                        parity[j] ^= mul(GENERATOR[j + 1], feedback);
+                    }
+                }
+            }
+            System.arraycopy(data, start, out, outPos, len);
+            outPos += len;
+            for (int j = 0; j < PARITY; j++) {
+                out[outPos++] = (byte) parity[j];
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public byte[] decode(byte[] coded, int dataBytes) {
+        byte[] out = new byte[dataBytes];
+        int inPos = 0;
+        int[] block = new int[255];
+        for (int start = 0; start < dataBytes; start += BLOCK_DATA) {
+            int len = Math.min(BLOCK_DATA, dataBytes - start);
+            int n = len + PARITY;
+            for (int i = 0; i < n; i++) {
+                block[i] = coded[inPos + i] & 0xFF;
+            }
+            correct(block, n);
+            for (int i = 0; i < len; i++) {
+                out[start + i] = (byte) block[i];
+            }
+            inPos += n;
+        }
+        return out;
+    }
+
+    /**
+     * Corrects block[0..n) in place, where block[0] is the coefficient of x^(n-1).
+     * Blocks with more errors than the code can fix are left as they are.
+     */
+    private static void correct(int[] block, int n) {
+        int[] syndromes = new int[PARITY];
+        boolean clean = true;
+        for (int i = 0; i < PARITY; i++) {
+            int s = 0;
+            for (int j = 0; j < n; j++) {
+                s = mul(s, EXP[i]) ^ block[j];
+            }
+            syndromes[i] = s;
+            clean &= s == 0;
+        }
+        if (clean) {
+            return;
+        }
+
+        // Berlekamp-Massey: error locator sigma(x), lowest degree first
+        int[] sigma = new int[PARITY + 1];
+        int[] prev = new int[PARITY + 1];
+        sigma[0] = 1;
+        prev[0] = 1;
+        int errors = 0;
+        int shift = 1;
+        int prevDiscrepancy = 1;
+        for (int k = 0; k < PARITY; k++) {
+            int d = syndromes[k];
+            for (int i = 1; i <= errors; i++) {
+                d ^= mul(sigma[i], syndromes[k - i]);
+            }
+            if (d == 0) {
+                shift++;
+                continue;
+            }
+            int coef = div(d, prevDiscrepancy);
+            if (2 * errors <= k) {
+                int[] saved = sigma.clone();
+                for (int i = 0; i + shift <= PARITY; i++) {
+                    sigma[i + shift] ^= mul(coef, prev[i]);
+                }
+                errors = k + 1 - errors;
+                prev = saved;
+                prevDiscrepancy = d;
+                shift = 1;
+            } else {
+                for (int i = 0; i + shift <= PARITY; i++) {
+                    sigma[i + shift] ^= mul(coef, prev[i]);
+                }
+                shift++;
+            }
+        }
+        if (errors > PARITY / 2) {
+            return;
+        }
+
+        // Chien search: an error at coefficient of x^p means sigma(alpha^-p) == 0
+        int[] positions = new int[errors];
+        int found = 0;
+        for (int p = 0; p < n; p++) {
+            int inv = EXP[(255 - p) % 255];
+            int v = 0;
+            for (int i = errors; i >= 0; i--) {
+                v = mul(v, inv) ^ sigma[i];
+            }
+            if (v == 0) {
+                if (found == errors) {
+                    return;
+                }
+                positions[found++] = p;
+            }
+        }
+        if (found != errors) {
+            return;
+        }
+
+        // Forney: omega(x) = S(x) * sigma(x) mod x^32
+        int[] omega = new int[PARITY];
+        for (int i = 0; i < PARITY; i++) {
+            int v = 0;
+            for (int j = 0; j <= Math.min(i, errors); j++) {
+                v ^= mul(syndromes[i - j], sigma[j]);
+            }
+            omega[i] = v;
+        }
+        for (int e = 0; e < errors; e++) {
+            int p = positions[e];
+            int xInv = EXP[(255 - p) % 255];
+            int num = 0;
+            for (int i = PARITY - 1; i >= 0; i--) {
+                num = mul(num, xInv) ^ omega[i];
+            }
+            // Formal derivative of sigma keeps only odd powers
+            int den = 0;
+            for (int i = 1; i <= errors; i += 2) {
+                den ^= mul(sigma[i], EXP[(LOG[xInv] * (i - 1)) % 255]);
+            }
+            if (den == 0) {
+                return;
+            }
+            // With first root alpha^0 the magnitude is X * omega(X^-1) / sigma'(X^-1)
+            int magnitude = mul(EXP[p % 255], div(num, den));
+            block[n - 1 - p] ^= magnitude;
+        }
+    }
+
+    private static int mul(int a, int b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    private static int div(int a, int b) {
+        if (a == 0) {
+            return 0;
+        }
+        return EXP[LOG[a] + 255 - LOG[b]];
+    }
+}
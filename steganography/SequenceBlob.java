@@ -0,0 +1,183 @@
+package steganography;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Binary form of a {@link SequenceKey} for the {@code sequence_blob} column.
+ * <pre>
+ *   byte 0       format version, 1
+ *   byte 1       kind: 0 stored permutation, 1 feistel-8, 2 block-feistel-8, 3 fy-hmac-sha256
+ *   byte 2       flags: bit 0 set if the entries are deflated
+ *   varint       sequence length, unsigned LEB128
+ *   seeded kinds 32-byte seed
+ *   permutation  byte bits per entry, then every entry in that many bits, MSB first
+ * </pre>
+ * A stored permutation of n positions takes ceil(log2 n) bits per entry: 22 bits, under
+ * 3 bytes, for a 1920x1080 cover, against up to 8 digits and a comma as legacy text.
+ * Shuffled permutations hardly deflate, so the entries are kept deflated only when asked
+ * and when that is actually smaller. Decoding unpacks straight from the stream into the
+ * {@code int[]}, never holding the whole blob.
+ */
+final class SequenceBlob {
+    private static final int VERSION = 1;
+    private static final String[] KINDS = {"legacy", SequenceKey.FEISTEL, SequenceKey.BLOCK_FEISTEL, SequenceKey.FISHER_YATES};
+    private static final int FLAG_DEFLATED = 1;
+    private static final int SEED_BYTES = 32;
+
+    private SequenceBlob() {
+    }
+
+    static byte[] encode(SequenceKey key, boolean deflate) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int kind = kind(key);
+        out.write(VERSION);
+        out.write(kind);
+        if (kind != 0) {
+            out.write(0);
+            writeVarint(out, key.length());
+            out.writeBytes(key.seed());
+            return out.toByteArray();
+        }
+        int[] sequence = key.legacySequence();
+        int bits = bitsPerEntry(sequence.length);
+        byte[] packed = pack(sequence, bits);
+        byte[] deflated = deflate ? deflate(packed) : null;
+        boolean useDeflated = deflated != null && deflated.length < packed.length;
+        out.write(useDeflated ? FLAG_DEFLATED : 0);
+        writeVarint(out, sequence.length);
+        out.write(bits);
+        out.writeBytes(useDeflated ? deflated : packed);
+        return out.toByteArray();
+    }
+
+    static SequenceKey decode(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        int version = in.readUnsignedByte();
+        int kind = in.readUnsignedByte();
+        int flags = in.readUnsignedByte();
+        if (version != VERSION || kind >= KINDS.length) {
+            throw new IOException("Unsupported sequence blob: version " + version + ", kind " + kind);
+        }
+        long length = readVarint(in);
+        if (kind != 0) {
+            byte[] seed = new byte[SEED_BYTES];
+            in.readFully(seed);
+            return SequenceKey.of(KINDS[kind], length, seed);
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Stored permutation of " + length + " positions does not fit an array");
+        }
+        int bits = in.readUnsignedByte();
+        if (bits != bitsPerEntry((int) length)) {
+            throw new IOException("Corrupt sequence blob: " + bits + " bits per entry for " + length + " positions");
+        }
+        InputStream entries = (flags & FLAG_DEFLATED) != 0 ? new InflaterInputStream(in) : in;
+        return SequenceKey.ofSequence(unpack(entries, (int) length, bits));
+    }
+
+    private static int kind(SequenceKey key) {
+        if (key.isLegacy()) {
+            return 0;
+        }
+        for (int kind = 1; kind < KINDS.length; kind++) {
+            if (KINDS[kind].equals(key.algorithm())) {
+                return kind;
+            }
+        }
+        throw new IllegalArgumentException("No blob kind for " + key.algorithm());
+    }
+
+    // Enough bits for the largest entry, length - 1
+    static int bitsPerEntry(int length) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(length - 1));
+    }
+
+    private static byte[] pack(int[] sequence, int bits) {
+        byte[] packed = new byte[(int) (((long) sequence.length * bits + 7) / 8)];
+        long acc = 0;
+        int pending = 0;
+        int pos = 0;
+        for (int entry : sequence) {
+            acc = acc << bits | entry;
+            pending += bits;
+            while (pending >= 8) {
+                pending -= 8;
+                packed[pos++] = (byte) (acc >>> pending);
+            }
+        }
+        if (pending > 0) {
+            packed[pos] = (byte) (acc << (8 - pending));
+        }
+        return packed;
+    }
+
+    private static int[] unpack(InputStream in, int length, int bits) throws IOException {
+        int[] sequence = new int[length];
+        byte[] chunk = new byte[8192];
+        int chunkLength = 0;
+        int chunkPos = 0;
+        long mask = (1L << bits) - 1;
+        long acc = 0;
+        int available = 0;
+        for (int i = 0; i < length; i++) {
+            while (available < bits) {
+                if (chunkPos == chunkLength) {
+                    chunkLength = in.read(chunk);
+                    chunkPos = 0;
+                    if (chunkLength <= 0) {
+                        throw new EOFException("Sequence blob ends after " + i + " of " + length + " entries");
+                    }
+                }
+                acc = acc << 8 | (chunk[chunkPos++] & 0xFF);
+                available += 8;
+            }
+            available -= bits;
+            int entry = (int) (acc >>> available & mask);
+            if (entry >= length) {
+                throw new IOException("Corrupt sequence blob: entry " + entry + " out of range");
+            }
+            sequence[i] = entry;
+        }
+        return sequence;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream stream = new DeflaterOutputStream(out, deflater, 8192)) {
+            stream.write(data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen with a byte array
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 63; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt sequence blob: length varint too long");
+    }
+}
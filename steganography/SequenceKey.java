@@ -0,0 +1,260 @@
+package steganography;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * What gets stored in PseudoRandomSequences for an image.
+ * <p>
+ * New rows hold only a version/algorithm tag, the sequence length and a 256-bit random
+ * seed, e.g. {@code v2:feistel-8:2764800:<base64 seed>}; positions are recomputed from
+ * the seed on extract. {@code feistel-8} keys ({@link FeistelSequence}) produce positions
+ * on demand, {@code block-feistel-8} keys ({@link BlockSequence}) do the same block by
+ * block for better memory locality, and {@code fy-hmac-sha256} keys rebuild a full
+ * Fisher-Yates shuffle. Rows
+ * written before this format hold the whole permutation as comma-separated decimals and
+ * are still accepted by {@link #decode(String)}. {@link #toBlob}/{@link #fromBlob} give
+ * the compact binary form of either kind, see {@link SequenceBlob}.
+ * <p>
+ * Lengths are 64-bit so that keys can cover gigapixel images; only the two Feistel
+ * kinds may exceed what a Java array can hold.
+ * <p>
+ * Instances are immutable and safe to share between threads.
+ */
+public final class SequenceKey {
+    static final String FISHER_YATES = "fy-hmac-sha256";
+    static final String FEISTEL = "feistel-8";
+    static final String BLOCK_FEISTEL = "block-feistel-8";
+    private static final String VERSION = "v2";
+    private static final int SEED_BYTES = 32;
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    private static final SecureRandom SEED_SOURCE = new SecureRandom();
+
+    private final String algorithm;
+    private final long length;
+    private final byte[] seed;
+    private final int[] legacySequence;
+
+    private SequenceKey(String algorithm, long length, byte[] seed, int[] legacySequence) {
+        this.algorithm = algorithm;
+        this.length = length;
+        this.seed = seed;
+        this.legacySequence = legacySequence;
+    }
+
+    public static SequenceKey generate(long length) {
+        return generate(FEISTEL, length);
+    }
+
+    /** A fresh key whose sequence walks the image in keyed 1024-pixel blocks, see {@link BlockSequence}. */
+    public static SequenceKey generateBlocked(long length) {
+        return generate(BLOCK_FEISTEL, length);
+    }
+
+    static SequenceKey generate(String algorithm, long length) {
+        checkAlgorithm(algorithm);
+        checkLength(algorithm, length);
+        byte[] seed = new byte[SEED_BYTES];
+        SEED_SOURCE.nextBytes(seed);
+        return new SequenceKey(algorithm, length, seed, null);
+    }
+
+    /**
+     * The key of an identified image under a master secret: its seed is
+     * HMAC-SHA256(masterKey, id), so whoever holds the secret can rebuild the key from the
+     * {@link ImageId} read out of the image, without storing or looking anything up.
+     */
+    static SequenceKey derive(String algorithm, long length, byte[] masterKey, UUID id) {
+        checkAlgorithm(algorithm);
+        checkLength(algorithm, length);
+        if (masterKey == null || masterKey.length == 0) {
+            throw new IllegalArgumentException("Master key must not be empty");
+        }
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
+            byte[] seed = mac.doFinal(ByteBuffer.allocate(16)
+                    .putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).array());
+            return new SequenceKey(algorithm, length, seed, null);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    }
+
+    /** A seeded key as read back from storage, as text or blob; rejects anything its kind cannot use. */
+    static SequenceKey of(String algorithm, long length, byte[] seed) {
+        checkAlgorithm(algorithm);
+        checkLength(algorithm, length);
+        if (seed.length != SEED_BYTES) {
+            throw new IllegalArgumentException("Seed must be " + SEED_BYTES + " bytes, not " + seed.length);
+        }
+        return new SequenceKey(algorithm, length, seed, null);
+    }
+
+    /** A key holding a stored permutation, as written before seeded keys existed. */
+    static SequenceKey ofSequence(int[] sequence) {
+        return new SequenceKey("legacy", sequence.length, null, sequence);
+    }
+
+    private static void checkAlgorithm(String algorithm) {
+        if (!FEISTEL.equals(algorithm) && !BLOCK_FEISTEL.equals(algorithm) && !FISHER_YATES.equals(algorithm)) {
+            throw new IllegalArgumentException("Unsupported sequence algorithm: " + algorithm);
+        }
+    }
+
+    // Fisher-Yates keys materialise the whole permutation as an int[]
+    private static void checkLength(String algorithm, long length) {
+        if (length < 0 || FISHER_YATES.equals(algorithm) && length > MAX_ARRAY_LENGTH) {
+            throw new IllegalArgumentException("Sequence length " + length + " is not supported by " + algorithm);
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /** The sequence kind, e.g. {@link #FEISTEL}; "legacy" for stored permutations. */
+    String algorithm() {
+        return algorithm;
+    }
+
+    boolean isLegacy() {
+        return legacySequence != null;
+    }
+
+    /** The seed of a seeded key; not a copy, so callers must not modify it. */
+    byte[] seed() {
+        return seed;
+    }
+
+    /** The stored permutation of a legacy key; not a copy, so callers must not modify it. */
+    int[] legacySequence() {
+        return legacySequence;
+    }
+
+    /** Binary form for the sequence_blob column, see {@link SequenceBlob}. */
+    public byte[] toBlob(boolean deflate) {
+        return SequenceBlob.encode(this, deflate);
+    }
+
+    public static SequenceKey fromBlob(InputStream blob) throws IOException {
+        return SequenceBlob.decode(blob);
+    }
+
+    /** Positions for embedding/extraction; only Fisher-Yates and legacy keys materialise an array. */
+    PositionSequence toPositions() {
+        if (FEISTEL.equals(algorithm)) {
+            return new FeistelSequence(seed, length);
+        }
+        if (BLOCK_FEISTEL.equals(algorithm)) {
+            return new BlockSequence(seed, length);
+        }
+        return new ArraySequence(toSequence());
+    }
+
+    /** Rebuilds the full permutation of 0..length-1. */
+    int[] toSequence() {
+        if (legacySequence != null) {
+            return legacySequence.clone();
+        }
+        if (length > MAX_ARRAY_LENGTH) {
+            throw new IllegalStateException("Sequence of " + length + " positions does not fit an array");
+        }
+        int size = (int) length;
+        if (!FISHER_YATES.equals(algorithm)) {
+            PositionSequence positions = toPositions();
+            int[] sequence = new int[size];
+            for (int i = 0; i < size; i++) {
+                sequence[i] = (int) positions.position(i);
+            }
+            return sequence;
+        }
+        Random random = new KeyedRandom(seed);
+        int[] sequence = new int[size];
+        for (int i = 0; i < size; i++) {
+            sequence[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = sequence[i];
+            sequence[i] = sequence[j];
+            sequence[j] = temp;
+        }
+        return sequence;
+    }
+
+    public String encode() {
+        if (legacySequence != null) {
+            return sequenceToString(legacySequence);
+        }
+        return VERSION + ":" + algorithm + ":" + length + ":" + Base64.getEncoder().encodeToString(seed);
+    }
+
+    public static SequenceKey decode(String stored) {
+        if (!stored.startsWith("v")) {
+            int[] sequence = stringToSequence(stored);
+            // A permutation of its own positions, or the binary form could not hold it
+            for (int i = 0; i < sequence.length; i++) {
+                if (sequence[i] >= sequence.length) {
+                    throw new IllegalArgumentException("Sequence entry " + i + " is " + sequence[i]
+                            + ", out of range for " + sequence.length + " positions");
+                }
+            }
+            return ofSequence(sequence);
+        }
+        String[] parts = stored.split(":");
+        if (parts.length != 4 || !VERSION.equals(parts[0])) {
+            throw new IllegalArgumentException("Unsupported sequence format: " + parts[0]);
+        }
+        return of(parts[1], Long.parseLong(parts[2]), Base64.getDecoder().decode(parts[3]));
+    }
+
+    // Legacy text format: every index as decimal followed by a comma
+    static String sequenceToString(int[] sequence) {
+        StringBuilder sb = new StringBuilder();
+        for (int num : sequence) {
+            sb.append(num).append(",");
+        }
+        return sb.toString();
+    }
+
+    // One pass to count entries and one to parse them in place, without split's substrings
+    static int[] stringToSequence(String sequenceStr) {
+        int count = 0;
+        boolean inNumber = false;
+        for (int i = 0; i < sequenceStr.length(); i++) {
+            boolean digit = sequenceStr.charAt(i) != ',';
+            if (digit && !inNumber) {
+                count++;
+            }
+            inNumber = digit;
+        }
+        int[] sequence = new int[count];
+        int n = 0;
+        int i = 0;
+        while (i < sequenceStr.length()) {
+            if (sequenceStr.charAt(i) == ',') {
+                i++;
+                continue;
+            }
+            int value = 0;
+            for (; i < sequenceStr.length() && sequenceStr.charAt(i) != ','; i++) {
+                int digit = sequenceStr.charAt(i) - '0';
+                if (digit < 0 || digit > 9 || value > (Integer.MAX_VALUE - digit) / 10) {
+                    throw new NumberFormatException("Invalid sequence entry near index " + i);
+                }
+                value = value * 10 + digit;
+            }
+            sequence[n++] = value;
+        }
+        return sequence;
+    }
+}
@@ -0,0 +1,133 @@
+package steganography;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+/**
+ * One-shot migration of PseudoRandomSequences to the binary {@code sequence_blob} column.
+ * <pre>
+ *   java steganography.SequenceMigration [--env steganography/.env] [--batch N] [--deflate] [--dry-run]
+ * </pre>
+ * Adds the column if it is missing and makes {@code sequence} nullable (MySQL syntax),
+ * then walks the rows without a blob in image_id order, a batch per transaction: each
+ * text key is decoded, written to {@code sequence_blob} and its text cleared. A row that
+ * does not decode, or whose blob does not decode back, is reported and left as it is. Running it again picks up where it
+ * stopped, and {@link JdbcSequenceStore} reads both forms in the meantime.
+ * {@code --dry-run} changes nothing and reports the sizes the migration would reach.
+ */
+public class SequenceMigration {
+    private static final String SELECT = "SELECT image_id, sequence FROM " + JdbcSequenceStore.TABLE
+            + " WHERE " + JdbcSequenceStore.BLOB_COLUMN + " IS NULL AND sequence IS NOT NULL AND image_id > ?"
+            + " ORDER BY image_id LIMIT ?";
+    private static final String UPDATE = "UPDATE " + JdbcSequenceStore.TABLE
+            + " SET " + JdbcSequenceStore.BLOB_COLUMN + " = ?, sequence = NULL WHERE image_id = ?";
+
+    public static void main(String[] args) throws Exception {
+        String envFile = "steganography/.env";
+        int batch = 500;
+        boolean deflate = false;
+        boolean dryRun = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("--env".equals(args[i]) && i + 1 < args.length) {
+                envFile = args[++i];
+            } else if ("--batch".equals(args[i]) && i + 1 < args.length) {
+                batch = Integer.parseInt(args[++i]);
+            } else if ("--deflate".equals(args[i])) {
+                deflate = true;
+            } else if ("--dry-run".equals(args[i])) {
+                dryRun = true;
+            } else {
+                System.err.println("Usage: SequenceMigration [--env F] [--batch N] [--deflate] [--dry-run]");
+                return;
+            }
+        }
+
+        Map<String, String> env = EnvLoad.loadEnv(envFile);
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        try (Connection con = DriverManager.getConnection(env.get("DB_URL"), env.get("DB_USER"), env.get("DB_PASSWORD"))) {
+            if (!dryRun) {
+                addBlobColumn(con);
+            }
+            migrate(con, batch, deflate, dryRun);
+        }
+    }
+
+    static void addBlobColumn(Connection con) throws SQLException {
+        if (JdbcSequenceStore.hasBlobColumn(con)) {
+            return;
+        }
+        try (Statement stmt = con.createStatement()) {
+            stmt.executeUpdate("ALTER TABLE " + JdbcSequenceStore.TABLE + " ADD COLUMN " + JdbcSequenceStore.BLOB_COLUMN
+                    + " LONGBLOB NULL, MODIFY sequence LONGTEXT NULL");
+        }
+        System.out.println("Added column " + JdbcSequenceStore.BLOB_COLUMN);
+    }
+
+    static void migrate(Connection con, int batch, boolean deflate, boolean dryRun) throws SQLException {
+        long start = System.nanoTime();
+        long rows = 0;
+        long failed = 0;
+        long textBytes = 0;
+        long blobBytes = 0;
+        String after = "";
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try (PreparedStatement select = con.prepareStatement(dryRun ? SELECT.replace(
+                JdbcSequenceStore.BLOB_COLUMN + " IS NULL AND ", "") : SELECT);
+             PreparedStatement update = con.prepareStatement(UPDATE)) {
+            while (true) {
+                select.setString(1, after);
+                select.setInt(2, batch);
+                int inBatch = 0;
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        inBatch++;
+                        String imageId = rs.getString(1);
+                        String text = rs.getString(2);
+                        after = imageId;
+                        byte[] blob;
+                        try {
+                            blob = SequenceKey.decode(text).toBlob(deflate);
+                            // The text is cleared with the update, so only a blob that reads back may replace it
+                            SequenceBlob.decode(new ByteArrayInputStream(blob));
+                        } catch (IOException | RuntimeException e) {
+                            failed++;
+                            System.err.println(imageId + ": " + e);
+                            continue;
+                        }
+                        rows++;
+                        textBytes += text.getBytes(StandardCharsets.UTF_8).length;
+                        blobBytes += blob.length;
+                        update.setBytes(1, blob);
+                        update.setString(2, imageId);
+                        update.addBatch();
+                    }
+                }
+                if (!dryRun) {
+                    update.executeBatch();
+                    con.commit();
+                }
+                update.clearBatch();
+                if (inBatch < batch) {
+                    break;
+                }
+                System.out.printf("%d rows, %d failed so far%n", rows, failed);
+            }
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(autoCommit);
+        }
+        System.out.printf("%s %d rows (%d failed) in %.1f s: %d text bytes -> %d blob bytes%n",
+                dryRun ? "Would migrate" : "Migrated", rows, failed, (System.nanoTime() - start) / 1e9, textBytes, blobBytes);
+    }
+}
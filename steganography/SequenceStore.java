@@ -0,0 +1,46 @@
+package steganography;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Where {@link SequenceKey}s are kept, by image ID, between embedding and extraction.
+ * <ul>
+ *   <li>{@link JdbcSequenceStore}: the PseudoRandomSequences table, shared by everyone
+ *       using the same database;</li>
+ *   <li>{@link MappedSequenceStore}: a local append-only file, for workstations and CI
+ *       that should not need a database;</li>
+ *   <li>{@link MemorySequenceStore}: nothing leaves the process, for tests and benchmarks.</li>
+ * </ul>
+ * Implementations are safe to share between threads.
+ */
+public interface SequenceStore extends Closeable {
+    /** Stores key under imageId; a later save for the same ID replaces it where the backend allows. */
+    void save(String imageId, SequenceKey key) throws IOException;
+
+    /** The key stored under imageId, or null if there is none. */
+    SequenceKey find(String imageId) throws IOException;
+
+    /**
+     * Opens the store a {@code .env}-style settings map asks for:
+     * {@code SEQUENCE_STORE=mysql} (the default, using {@code DB_URL}, {@code DB_USER} and
+     * {@code DB_PASSWORD}; {@code SEQUENCE_DEFLATE=true} deflates stored permutations), {@code file} (at {@code SEQUENCE_FILE}, default
+     * {@code sequences.seq}) or {@code memory}.
+     */
+    static SequenceStore open(Map<String, String> settings) throws IOException {
+        String kind = settings.getOrDefault("SEQUENCE_STORE", "mysql");
+        switch (kind) {
+            case "mysql":
+                return JdbcSequenceStore.connect(settings.get("DB_URL"), settings.get("DB_USER"), settings.get("DB_PASSWORD"),
+                        Boolean.parseBoolean(settings.get("SEQUENCE_DEFLATE")));
+            case "file":
+                return new MappedSequenceStore(new File(settings.getOrDefault("SEQUENCE_FILE", "sequences.seq")));
+            case "memory":
+                return new MemorySequenceStore();
+            default:
+                throw new IllegalArgumentException("Unknown SEQUENCE_STORE: " + kind);
+        }
+    }
+}
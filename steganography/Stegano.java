@@ -11,8 +11,9 @@ import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 public class Stegano {
     public static void main(String[] args) {
@@ -25,11 +26,10 @@ class StegoApp extends JFrame {
     private JTextArea textArea;
     private JLabel imageLabel;
     private static final String IMAGE_ID = "testImageId"; // Static image ID for example purposes
-    private DBConnection dbConnection; // DBConnection instance
+    private final SequenceStore sequenceStore = StegoPanel.openSequenceStore();
+    private final StegoEngine engine = new StegoEngine(ForkJoinPool.commonPool(), StegoOptions.defaults().withCompression(true));
 
     public StegoApp() {
-        dbConnection = new DBConnection(); // Initialize DBConnection
-
         setTitle("StegoApp");
         setSize(800, 600);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -57,6 +57,12 @@ class StegoApp extends JFrame {
         buttonPanel.add(extractButton);
         panel.add(buttonPanel, BorderLayout.SOUTH);
 
+        if (sequenceStore == null) {
+            // Keys could not be kept, so an embedded image could never be read back
+            embedButton.setEnabled(false);
+            extractButton.setEnabled(false);
+        }
+
         add(panel, BorderLayout.EAST);
         add(imageLabel, BorderLayout.CENTER);
     }
@@ -96,9 +102,19 @@ class StegoApp extends JFrame {
     private class EmbedButtonListener implements ActionListener {
         public void actionPerformed(ActionEvent e) {
             if (image != null && !textArea.getText().isEmpty()) {
-                int[] prSequence = generatePseudoRandomSequence(image.getWidth() * image.getHeight() * 3);
-                embedData(image, textArea.getText(), prSequence);
-                dbConnection.saveSequence(IMAGE_ID, prSequence);
+                SequenceKey sequenceKey = engine.newKey(image);
+                try {
+                    engine.embed(image, textArea.getText().getBytes(StandardCharsets.UTF_8), sequenceKey);
+                } catch (IllegalArgumentException ex) {
+                    JOptionPane.showMessageDialog(null, "The text does not fit into this image: " + ex.getMessage());
+                    return;
+                }
+                try {
+                    sequenceStore.save(IMAGE_ID, sequenceKey);
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(null, "The sequence could not be stored: " + ex.getMessage());
+                    return;
+                }
 
                 try {
                     ImageIO.write(image, "png", new File("stego_image.png"));
@@ -115,100 +131,22 @@ class StegoApp extends JFrame {
     private class ExtractButtonListener implements ActionListener {
         public void actionPerformed(ActionEvent e) {
             if (image != null) {
-                int[] prSequence = dbConnection.getSequence(IMAGE_ID);
-                String extractedText = extractData(image, prSequence);
-                JOptionPane.showMessageDialog(null, "Extracted Data: " + extractedText);
+                SequenceKey sequenceKey;
+                try {
+                    sequenceKey = sequenceStore.find(IMAGE_ID);
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(null, "The sequence store could not be read: " + ex.getMessage());
+                    return;
+                }
+                if (sequenceKey != null) {
+                    String extractedText = new String(engine.extract(image, sequenceKey), StandardCharsets.UTF_8);
+                    JOptionPane.showMessageDialog(null, "Extracted Data: " + extractedText);
+                } else {
+                    JOptionPane.showMessageDialog(null, "No sequence stored for " + IMAGE_ID + ".");
+                }
             } else {
                 JOptionPane.showMessageDialog(null, "Please drop an image first.");
             }
         }
     }
-
-    private void embedData(BufferedImage image, String data, int[] prSequence) {
-        String dataBin = toBinary(data);
-        int dataIdx = 0;
-        int redundancy = 3;
-
-        for (char bit : dataBin.toCharArray()) {
-            for (int r = 0; r < redundancy; r++) {
-                if (dataIdx >= prSequence.length) break;
-
-                int idx = prSequence[dataIdx];
-                int x = (idx / 3) % image.getWidth();
-                int y = (idx / 3) / image.getWidth();
-                int channel = idx % 3;
-
-                int pixel = image.getRGB(x, y);
-                int color = (pixel >> (8 * (2 - channel))) & 0xFF;
-                color = (color & 0xFE) | (bit - '0');
-                pixel = (pixel & ~(0xFF << (8 * (2 - channel)))) | (color << (8 * (2 - channel)));
-                image.setRGB(x, y, pixel);
-
-                dataIdx++;
-            }
-        }
-    }
-
-    private String extractData(BufferedImage image, int[] prSequence) {
-        int dataLen = 100; // Assuming we know the length of the hidden data
-        int redundancy = 3;
-        int[] bitCounts = new int[dataLen * 8];
-
-        int dataIdx = 0;
-        for (int i = 0; i < dataLen * 8 * redundancy; i++) {
-            if (dataIdx >= prSequence.length) break;
-
-            int idx = prSequence[dataIdx];
-            int x = (idx / 3) % image.getWidth();
-            int y = (idx / 3) / image.getWidth();
-            int channel = idx % 3;
-
-            int pixel = image.getRGB(x, y);
-            int color = (pixel >> (8 * (2 - channel))) & 0xFF;
-            int bit = color & 1;
-            bitCounts[i / redundancy] += bit;
-
-            dataIdx++;
-        }
-
-        StringBuilder dataBin = new StringBuilder();
-        for (int count : bitCounts) {
-            dataBin.append(count > redundancy / 2 ? '1' : '0');
-        }
-
-        return fromBinary(dataBin.toString());
-    }
-
-    private String toBinary(String text) {
-        StringBuilder bin = new StringBuilder();
-        for (char c : text.toCharArray()) {
-            bin.append(String.format("%8s", Integer.toBinaryString(c)).replace(' ', '0'));
-        }
-        return bin.toString();
-    }
-
-    private String fromBinary(String bin) {
-        StringBuilder text = new StringBuilder();
-        for (int i = 0; i < bin.length(); i += 8) {
-            String byteString = bin.substring(i, i + 8);
-            text.append((char) Integer.parseInt(byteString, 2));
-        }
-        return text.toString();
-    }
-
-    private int[] generatePseudoRandomSequence(int length) {
-        Random random = new Random();
-        int[] sequence = new int[length];
-        for (int i = 0; i < length; i++) {
-            sequence[i] = i;
-        }
-        for (int i = 0; i < length; i++) {
-            int j = random.nextInt(length);
-            int temp = sequence[i];
-            sequence[i] = sequence[j];
-            sequence[j] = temp;
-        }
-        return sequence;
-    }
-
 }
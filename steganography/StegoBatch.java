@@ -0,0 +1,272 @@
+package steganography;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Command-line batch mode for {@link StegoEngine}.
+ * <pre>
+ *   java steganography.StegoBatch embed   &lt;coverDir&gt; &lt;outDir&gt; &lt;payloadFile&gt; [--threads N]
+ *                                          [--redundancy N] [--fec none|hamming|rs] [--matrix K] [--bits K]
+ *                                          [--compress] [--blocks] [--stream] [--png-level N]
+ *                                          [--png-filter none|sub|up|average|paeth|adaptive] [--master F]
+ *   java steganography.StegoBatch extract &lt;stegoDir&gt; &lt;outDir&gt; [--threads N] [--stream] [--master F]
+ *   java steganography.StegoBatch plan    &lt;coverDir&gt; &lt;payloadFile&gt; [embed options]
+ * </pre>
+ * {@code embed} writes {@code <name>_stego.png} for every image in coverDir plus a
+ * {@code keys.txt} with one {@code file<TAB>key} line per output. {@code extract} reads
+ * that keys file from stegoDir and writes {@code <name>.bin} for each entry. Every file
+ * is reported with its size, time and throughput once it is done. {@code --stream} reads
+ * and writes images a band of rows at a time, for covers larger than the heap.
+ * {@code --master} names a file holding a master secret: embed then writes each image's
+ * ID into it and lists {@code file<TAB>id} in keys.txt, and extract needs no keys file at
+ * all, deriving every key from the ID it reads back and the same secret.
+ * {@code plan} decodes nothing: it prints the {@link CapacityPlan} of every cover from
+ * its dimensions, so oversize payloads can be routed elsewhere before a batch starts.
+ */
+public class StegoBatch {
+    static final String KEYS_FILE = "keys.txt";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            usage();
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        StegoOptions options = StegoOptions.defaults();
+        boolean streaming = false;
+        byte[] masterKey = null;
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--redundancy".equals(args[i]) && i + 1 < args.length) {
+                options = options.withRedundancy(Integer.parseInt(args[++i]));
+            } else if ("--fec".equals(args[i]) && i + 1 < args.length) {
+                options = options.withFec(parseFec(args[++i]));
+            } else if ("--stream".equals(args[i])) {
+                streaming = true;
+            } else if ("--compress".equals(args[i])) {
+                options = options.withCompression(true);
+            } else if ("--blocks".equals(args[i])) {
+                options = options.withBlockPermutation(true);
+            } else if ("--matrix".equals(args[i]) && i + 1 < args.length) {
+                options = options.withMatrixEmbedding(Integer.parseInt(args[++i]));
+            } else if ("--bits".equals(args[i]) && i + 1 < args.length) {
+                options = options.withBitsPerChannel(Integer.parseInt(args[++i]));
+            } else if ("--png-level".equals(args[i]) && i + 1 < args.length) {
+                options = options.withPngLevel(Integer.parseInt(args[++i]));
+            } else if ("--png-filter".equals(args[i]) && i + 1 < args.length) {
+                options = options.withPngFilter(parsePngFilter(args[++i]));
+            } else if ("--master".equals(args[i]) && i + 1 < args.length) {
+                masterKey = Files.readAllBytes(new File(args[++i]).toPath());
+            } else {
+                positional.add(args[i]);
+            }
+        }
+
+        // Counted without the flags, which the length check above could not tell apart
+        String command = positional.isEmpty() ? "" : positional.get(0);
+        int arity = "embed".equals(command) ? 4 : "extract".equals(command) || "plan".equals(command) ? 3 : -1;
+        if (positional.size() != arity) {
+            usage();
+            return;
+        }
+        if (streaming && masterKey != null) {
+            throw new IllegalArgumentException("--stream cannot be combined with --master");
+        }
+
+        StegoEngine engine = new StegoEngine(threads > 1 ? null : ForkJoinPool.commonPool(), options);
+        if ("plan".equals(command)) {
+            planAll(engine, new File(positional.get(1)), Files.readAllBytes(new File(positional.get(2)).toPath()));
+            return;
+        }
+        File in = new File(positional.get(1));
+        File out = new File(positional.get(2));
+        if (!out.isDirectory() && !out.mkdirs()) {
+            throw new IOException("Cannot create " + out);
+        }
+
+        // One image per worker; splitting a single image across threads as well would only add contention
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            if ("embed".equals(command)) {
+                embedAll(engine, workers, in, out, Files.readAllBytes(new File(positional.get(3)).toPath()), streaming, masterKey);
+            } else {
+                extractAll(engine, workers, in, out, streaming, masterKey);
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: StegoBatch embed <coverDir> <outDir> <payloadFile> [--threads N]");
+        System.err.println("                         [--redundancy N] [--fec none|hamming|rs] [--matrix K] [--bits K]");
+        System.err.println("                         [--compress] [--blocks] [--stream]");
+        System.err.println("                         [--png-level N] [--png-filter none|sub|up|average|paeth|adaptive]");
+        System.err.println("                         [--master F]");
+        System.err.println("       StegoBatch extract <stegoDir> <outDir> [--threads N] [--stream] [--master F]");
+        System.err.println("       StegoBatch plan    <coverDir> <payloadFile> [embed options]");
+    }
+
+    private static Fec parseFec(String name) {
+        switch (name) {
+            case "none":
+                return Fec.NONE;
+            case "hamming":
+                return Fec.HAMMING_7_4;
+            case "rs":
+                return Fec.REED_SOLOMON;
+            default:
+                throw new IllegalArgumentException("Unknown error correction: " + name);
+        }
+    }
+
+    private static PngFilter parsePngFilter(String name) {
+        for (PngFilter filter : PngFilter.values()) {
+            if (filter.name().equalsIgnoreCase(name)) {
+                return filter;
+            }
+        }
+        throw new IllegalArgumentException("Unknown PNG filter: " + name);
+    }
+
+    static void embedAll(StegoEngine engine, ExecutorService workers, File coverDir, File outDir, byte[] payload, boolean streaming,
+                         byte[] masterKey) throws Exception {
+        File[] covers = coverDir.listFiles(File::isFile);
+        if (covers == null) {
+            throw new IOException("Not a directory: " + coverDir);
+        }
+        long batchStart = System.nanoTime();
+        // Each job returns the second column of its keys.txt line: the encoded key, or the image ID
+        Map<String, Future<String>> jobs = new LinkedHashMap<>();
+        for (File cover : covers) {
+            String name = baseName(cover) + "_stego.png";
+            File stego = new File(outDir, name);
+            jobs.put(name, workers.submit(() -> {
+                long start = System.nanoTime();
+                String entry;
+                if (masterKey != null) {
+                    entry = engine.embedIdentified(cover, payload, masterKey, stego).toString();
+                } else {
+                    entry = (streaming ? engine.embedStreaming(cover, payload, stego) : engine.embed(cover, payload, stego)).encode();
+                }
+                report(cover.getName(), cover.length(), payload.length, System.nanoTime() - start);
+                return entry;
+            }));
+        }
+
+        int failed = 0;
+        try (BufferedWriter keys = Files.newBufferedWriter(new File(outDir, KEYS_FILE).toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Future<String>> job : jobs.entrySet()) {
+                try {
+                    keys.write(job.getKey() + "\t" + job.getValue().get());
+                    keys.newLine();
+                } catch (Exception e) {
+                    failed++;
+                    System.err.println(job.getKey() + ": " + e.getCause());
+                }
+            }
+        }
+        summary(jobs.size(), failed, System.nanoTime() - batchStart);
+    }
+
+    static void planAll(StegoEngine engine, File coverDir, byte[] payload) throws IOException {
+        File[] covers = coverDir.listFiles(File::isFile);
+        if (covers == null) {
+            throw new IOException("Not a directory: " + coverDir);
+        }
+        int oversize = 0;
+        for (File cover : covers) {
+            try {
+                CapacityPlan plan = engine.plan(cover, payload);
+                if (!plan.fits()) {
+                    oversize++;
+                }
+                System.out.printf("%-40s %-8s %12d B stored %12d B max %14d positions %14d changes%n",
+                        cover.getName(), plan.fits() ? "fits" : "TOO BIG", plan.storedBytes(), plan.maxStoredBytes(),
+                        plan.usedPositions(), plan.expectedChanges());
+            } catch (IOException e) {
+                System.err.println(cover.getName() + ": " + e);
+            }
+        }
+        System.out.printf("%d files, %d too small%n", covers.length, oversize);
+    }
+
+    static void extractAll(StegoEngine engine, ExecutorService workers, File stegoDir, File outDir, boolean streaming,
+                           byte[] masterKey) throws Exception {
+        long batchStart = System.nanoTime();
+        Map<String, Future<?>> jobs = new LinkedHashMap<>();
+        if (masterKey != null) {
+            // Identified images name their own keys; every image in the directory is a job
+            File[] stegos = stegoDir.listFiles(f -> f.isFile() && !KEYS_FILE.equals(f.getName()));
+            if (stegos == null) {
+                throw new IOException("Not a directory: " + stegoDir);
+            }
+            for (File stego : stegos) {
+                jobs.put(stego.getName(), workers.submit(() -> {
+                    long start = System.nanoTime();
+                    byte[] payload = engine.extractIdentified(stego, masterKey);
+                    Files.write(new File(outDir, baseName(stego) + ".bin").toPath(), payload);
+                    report(stego.getName(), stego.length(), payload.length, System.nanoTime() - start);
+                    return null;
+                }));
+            }
+        }
+        List<String> lines = masterKey != null ? List.of() : Files.readAllLines(new File(stegoDir, KEYS_FILE).toPath(), StandardCharsets.UTF_8);
+        for (String line : lines) {
+            String[] parts = line.split("\t", 2);
+            if (parts.length != 2) {
+                continue;
+            }
+            File stego = new File(stegoDir, parts[0]);
+            SequenceKey key = SequenceKey.decode(parts[1]);
+            jobs.put(parts[0], workers.submit(() -> {
+                long start = System.nanoTime();
+                byte[] payload = streaming ? engine.extractStreaming(stego, key) : engine.extract(stego, key);
+                Files.write(new File(outDir, baseName(stego) + ".bin").toPath(), payload);
+                report(stego.getName(), stego.length(), payload.length, System.nanoTime() - start);
+                return null;
+            }));
+        }
+
+        int failed = 0;
+        for (Map.Entry<String, Future<?>> job : jobs.entrySet()) {
+            try {
+                job.getValue().get();
+            } catch (Exception e) {
+                failed++;
+                System.err.println(job.getKey() + ": " + e.getCause());
+            }
+        }
+        summary(jobs.size(), failed, System.nanoTime() - batchStart);
+    }
+
+    private static void report(String name, long fileBytes, int payloadBytes, long nanos) {
+        double millis = nanos / 1e6;
+        System.out.printf("%-40s %10d B image %10d B payload %9.1f ms %8.2f MB/s%n",
+                name, fileBytes, payloadBytes, millis, fileBytes / 1e6 / (nanos / 1e9));
+    }
+
+    private static void summary(int total, int failed, long nanos) {
+        System.out.printf("%d files, %d failed, %.1f s%n", total, failed, nanos / 1e9);
+    }
+
+    private static String baseName(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+}
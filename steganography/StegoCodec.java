@@ -0,0 +1,330 @@
+package steganography;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * LSB embedding and extraction.
+ * <p>
+ * Layout along the position sequence: the {@link PayloadHeader} first, then the payload
+ * after optional compression ({@link PayloadCompression}) and forward error correction
+ * ({@link Fec}), each coded bit repeated
+ * {@code redundancy} times. Extraction reads the header and then exactly the number of
+ * bits it declares. Images embedded before the header existed are decoded the old way
+ * (100 bytes, 3 copies per bit). With matrix embedding the coded bits are carried by
+ * {@link MatrixEmbedding} groups instead of repetition.
+ * <p>
+ * In k-LSB mode the coded bits are taken k at a time and each group replaces the lowest k
+ * bits of one position, so k times fewer positions are generated and visited, at the
+ * cost of visibly noisier pixels for k of 3 or 4. The header always uses one bit.
+ * <p>
+ * Payloads are arbitrary bytes. One that does not fit is rejected before anything is
+ * written; {@link CapacityPlan} answers the same question up front. {@link StegoEngine} is
+ * the public front end.
+ * <p>
+ * Every coded bit owns its own run of sequence slots, so large payloads are split into
+ * byte ranges and processed on a {@link ForkJoinPool}. Output is identical to the
+ * sequential path: each position is still written exactly once, with the same bit.
+ */
+final class StegoCodec {
+    static final int DEFAULT_REDUNDANCY = 3;
+    /** Payloads smaller than this (bytes) are not worth splitting across threads. */
+    static final int PARALLEL_THRESHOLD = 64 * 1024;
+    private static final long CHUNK_BITS = 16 * 1024 * 8;
+    static final int LEGACY_DATA_LEN = 100;
+
+    private StegoCodec() {
+    }
+
+    static void embed(BufferedImage image, byte[] payload, PositionSequence prSequence) {
+        embed(image, payload, prSequence, ForkJoinPool.commonPool());
+    }
+
+    static byte[] extract(BufferedImage image, PositionSequence prSequence) {
+        return extract(image, prSequence, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Embeds payload; small payloads, a null pool, or an image type that cannot be written
+     * concurrently run sequentially.
+     */
+    static void embed(BufferedImage image, byte[] payload, PositionSequence prSequence, ForkJoinPool pool) {
+        embed(image, payload, prSequence, DEFAULT_REDUNDANCY, pool);
+    }
+
+    /** As above with an explicit number of copies per payload bit; it is recorded in the header. */
+    static void embed(BufferedImage image, byte[] payload, PositionSequence prSequence, int redundancy, ForkJoinPool pool) {
+        embed(image, payload, prSequence, StegoOptions.defaults().withRedundancy(redundancy), pool);
+    }
+
+    /** As above with explicit layout options; they are recorded in the header. */
+    static void embed(BufferedImage image, byte[] payload, PositionSequence prSequence, StegoOptions options, ForkJoinPool pool) {
+        embed(image, EncodedPayload.encode(payload, options), prSequence, pool);
+    }
+
+    /**
+     * Embeds an already encoded payload. Throws IllegalArgumentException, before touching
+     * the image, if it does not fit the sequence.
+     */
+    static void embed(BufferedImage image, EncodedPayload encoded, PositionSequence prSequence, ForkJoinPool pool) {
+        PayloadHeader header = encoded.header;
+        checkFits(header, prSequence.length());
+        byte[] coded = encoded.coded;
+        long codedBits = header.codedBits();
+        LsbRaster raster = LsbRaster.of(image);
+
+        long dataIdx = writeBits(raster, prSequence, 0, new BitReader(header.toBytes()), PayloadHeader.HEADER_REDUNDANCY);
+        LsbRaster concurrent = pool != null ? raster.concurrent() : null;
+        if (concurrent != null && header.length >= PARALLEL_THRESHOLD) {
+            pool.invoke(new EmbedTask(concurrent, prSequence, dataIdx, coded, header, 0, codedBits));
+        } else {
+            writeCoded(raster, prSequence, dataIdx, new BitReader(coded, 0, codedBits), header);
+        }
+    }
+
+    /** Extracts the payload; the pool is only used once the header announces a large payload. */
+    static byte[] extract(BufferedImage image, PositionSequence prSequence, ForkJoinPool pool) {
+        LsbRaster raster = LsbRaster.of(image);
+        PayloadHeader header = readHeader(raster, prSequence);
+        if (header == null) {
+            // No header: embedded by an older build
+            return readBits(raster, prSequence, 0, LEGACY_DATA_LEN, DEFAULT_REDUNDANCY);
+        }
+
+        long codedBits = header.codedBits();
+        byte[] coded = new byte[(int) ((codedBits + 7) / 8)];
+        if (pool != null && header.length >= PARALLEL_THRESHOLD) {
+            pool.invoke(new ExtractTask(raster, prSequence, header.positions(), coded, header, 0, codedBits));
+        } else {
+            readCoded(raster, prSequence, header.positions(), new BitWriter(coded, 0), codedBits, header);
+        }
+        return EncodedPayload.decode(header, coded);
+    }
+
+    /** Throws IllegalArgumentException unless header and payload fit into available positions. */
+    static void checkFits(PayloadHeader header, long available) {
+        if (header.totalPositions() > available) {
+            throw new IllegalArgumentException("Payload needs " + header.totalPositions()
+                    + " positions but only " + available + " are available");
+        }
+    }
+
+    // The common header part first; its version says whether more header bytes follow
+    private static PayloadHeader readHeader(LsbRaster raster, PositionSequence prSequence) {
+        if (prSequence.length() < PayloadHeader.BASE_POSITIONS) {
+            return null;
+        }
+        byte[] headerBytes = readBits(raster, prSequence, 0, PayloadHeader.BASE_BYTES, PayloadHeader.HEADER_REDUNDANCY);
+        int size = PayloadHeader.sizeBytes(headerBytes);
+        if (size < 0 || (long) size * 8 * PayloadHeader.HEADER_REDUNDANCY > prSequence.length()) {
+            return null;
+        }
+        if (size > headerBytes.length) {
+            headerBytes = readBits(raster, prSequence, 0, size, PayloadHeader.HEADER_REDUNDANCY);
+        }
+        return PayloadHeader.parse(headerBytes, prSequence.length());
+    }
+
+    private static void writeCoded(LsbRaster raster, PositionSequence prSequence, long dataIdx, BitReader bits, PayloadHeader header) {
+        if (header.isMatrix()) {
+            MatrixEmbedding.write(raster, prSequence, dataIdx, bits, header.matrixBits);
+        } else if (header.lsbBits > 1) {
+            writeSymbols(raster, prSequence, dataIdx, bits, header.redundancy, header.lsbBits);
+        } else {
+            writeBits(raster, prSequence, dataIdx, bits, header.redundancy);
+        }
+    }
+
+    private static void readCoded(LsbRaster raster, PositionSequence prSequence, long dataIdx, BitWriter out, long bitCount, PayloadHeader header) {
+        if (header.isMatrix()) {
+            MatrixEmbedding.read(raster, prSequence, dataIdx, out, bitCount, header.matrixBits);
+        } else if (header.lsbBits > 1) {
+            readSymbols(raster, prSequence, dataIdx, out, bitCount, header.redundancy, header.lsbBits);
+        } else {
+            readBits(raster, prSequence, dataIdx, out, bitCount, header.redundancy);
+        }
+    }
+
+    // Writes every bit from bits redundancy times starting at sequence index dataIdx;
+    // returns the next free sequence index.
+    private static long writeBits(LsbRaster raster, PositionSequence prSequence, long dataIdx, BitReader bits, int redundancy) {
+        long end = prSequence.length();
+        while (bits.hasNext()) {
+            int bit = bits.readBit();
+            for (int r = 0; r < redundancy; r++) {
+                if (dataIdx >= end) return dataIdx;
+
+                raster.setLsb(prSequence.position(dataIdx), bit);
+                dataIdx++;
+            }
+        }
+        return dataIdx;
+    }
+
+    // Majority-votes byteCount bytes, each bit stored redundancy times, starting at sequence index dataIdx
+    private static byte[] readBits(LsbRaster raster, PositionSequence prSequence, long dataIdx, int byteCount, int redundancy) {
+        BitWriter out = new BitWriter(byteCount);
+        readBits(raster, prSequence, dataIdx, out, (long) byteCount * 8, redundancy);
+        return out.toByteArray();
+    }
+
+    // Bits whose copies all lie inside the sequence are voted a word at a time: the slots of
+    // up to 64 bits are fetched first, their LSBs packed into one word per copy, and the
+    // words voted with MajorityVote. A tail cut off by the end of the sequence is voted
+    // bit by bit over the copies that exist.
+    private static void readBits(LsbRaster raster, PositionSequence prSequence, long dataIdx, BitWriter out, long bitCount, int redundancy) {
+        long end = prSequence.length();
+        long whole = Math.min(bitCount, Math.max(0, end - dataIdx) / redundancy);
+        if (whole > 0) {
+            int batch = (int) Math.min(64, whole);
+            long[] slots = new long[batch * redundancy];
+            long[] copies = new long[redundancy];
+            for (long i = 0; i < whole; i += 64) {
+                int n = (int) Math.min(64, whole - i);
+                prSequence.positions(dataIdx, slots, n * redundancy);
+                Arrays.fill(copies, 0);
+                for (int b = 0, slot = 0; b < n; b++) {
+                    for (int r = 0; r < redundancy; r++) {
+                        copies[r] |= (long) raster.getLsb(slots[slot++]) << (63 - b);
+                    }
+                }
+                out.writeBits(MajorityVote.vote(copies, redundancy), n);
+                dataIdx += (long) n * redundancy;
+            }
+        }
+        for (long i = whole; i < bitCount && dataIdx < end; i++) {
+            int count = 0;
+            for (int r = 0; r < redundancy && dataIdx < end; r++) {
+                count += raster.getLsb(prSequence.position(dataIdx));
+                dataIdx++;
+            }
+            out.writeBit(count > redundancy / 2 ? 1 : 0);
+        }
+    }
+
+    // Like writeBits, but each position takes the next depth bits (MSB first, the last
+    // symbol padded with 0 bits) in its lowest bits
+    private static long writeSymbols(LsbRaster raster, PositionSequence prSequence, long dataIdx, BitReader bits, int redundancy, int depth) {
+        long end = prSequence.length();
+        while (bits.hasNext()) {
+            int symbol = 0;
+            for (int b = 0; b < depth; b++) {
+                symbol = (symbol << 1) | (bits.hasNext() ? bits.readBit() : 0);
+            }
+            for (int r = 0; r < redundancy; r++) {
+                if (dataIdx >= end) return dataIdx;
+
+                raster.setBits(prSequence.position(dataIdx), depth, symbol);
+                dataIdx++;
+            }
+        }
+        return dataIdx;
+    }
+
+    // Reads bitCount bits stored depth to a position, majority-voting each bit over its copies
+    private static void readSymbols(LsbRaster raster, PositionSequence prSequence, long dataIdx, BitWriter out, long bitCount, int redundancy, int depth) {
+        long end = prSequence.length();
+        int[] counts = new int[depth];
+        for (long i = 0; i < bitCount && dataIdx < end; i += depth) {
+            Arrays.fill(counts, 0);
+            for (int r = 0; r < redundancy && dataIdx < end; r++) {
+                int symbol = raster.getBits(prSequence.position(dataIdx), depth);
+                for (int b = 0; b < depth; b++) {
+                    counts[b] += (symbol >>> (depth - 1 - b)) & 1;
+                }
+                dataIdx++;
+            }
+            int take = (int) Math.min(depth, bitCount - i);
+            for (int b = 0; b < take; b++) {
+                out.writeBit(counts[b] > redundancy / 2 ? 1 : 0);
+            }
+        }
+    }
+
+    // Sequence index of the first slot of coded bit `fromBit`, or -1 past the end of the sequence;
+    // fromBit must start a matrix group or a multi-bit symbol
+    private static long slotOf(PositionSequence prSequence, long base, long fromBit, PayloadHeader header) {
+        long idx = header.isMatrix()
+                ? base + fromBit / header.matrixBits * MatrixEmbedding.groupSize(header.matrixBits)
+                : base + fromBit / header.lsbBits * header.redundancy;
+        return idx < prSequence.length() ? idx : -1;
+    }
+
+    // Midpoint of [from, to) on a byte boundary that also starts a matrix group or symbol
+    private static long splitPoint(PayloadHeader header, long from, long to) {
+        long align = header.isMatrix() ? 8L * header.matrixBits : 8L * header.lsbBits;
+        return (from + to) / 2 / align * align;
+    }
+
+    private static final class EmbedTask extends RecursiveAction {
+        private final LsbRaster raster;
+        private final PositionSequence prSequence;
+        private final long base;
+        private final byte[] coded;
+        private final PayloadHeader header;
+        private final long from;
+        private final long to;
+
+        EmbedTask(LsbRaster raster, PositionSequence prSequence, long base, byte[] coded, PayloadHeader header, long from, long to) {
+            this.raster = raster;
+            this.prSequence = prSequence;
+            this.base = base;
+            this.coded = coded;
+            this.header = header;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK_BITS) {
+                long mid = splitPoint(header, from, to);
+                invokeAll(new EmbedTask(raster, prSequence, base, coded, header, from, mid),
+                        new EmbedTask(raster, prSequence, base, coded, header, mid, to));
+                return;
+            }
+            long dataIdx = slotOf(prSequence, base, from, header);
+            if (dataIdx >= 0) {
+                writeCoded(raster, prSequence, dataIdx, new BitReader(coded, from, to), header);
+            }
+        }
+    }
+
+    // Tasks cover coded bit ranges split on byte (and group) boundaries, so each leaf owns
+    // whole output bytes and leaves never write the same array element
+    private static final class ExtractTask extends RecursiveAction {
+        private final LsbRaster raster;
+        private final PositionSequence prSequence;
+        private final long base;
+        private final byte[] coded;
+        private final PayloadHeader header;
+        private final long from;
+        private final long to;
+
+        ExtractTask(LsbRaster raster, PositionSequence prSequence, long base, byte[] coded, PayloadHeader header, long from, long to) {
+            this.raster = raster;
+            this.prSequence = prSequence;
+            this.base = base;
+            this.coded = coded;
+            this.header = header;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK_BITS) {
+                long mid = splitPoint(header, from, to);
+                invokeAll(new ExtractTask(raster, prSequence, base, coded, header, from, mid),
+                        new ExtractTask(raster, prSequence, base, coded, header, mid, to));
+                return;
+            }
+            long dataIdx = slotOf(prSequence, base, from, header);
+            if (dataIdx >= 0) {
+                readCoded(raster, prSequence, dataIdx, new BitWriter(coded, from), to - from, header);
+            }
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package steganography;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Headless entry point for embedding and extracting payloads, independent of Swing and
+ * of the database. Callers decide where {@link SequenceKey}s are kept.
+ * <p>
+ * An engine holds no mutable state and may be shared between threads. Two threads must
+ * not embed into the same {@link BufferedImage} at the same time.
+ * <p>
+ * The {@code *Streaming} methods work on files band by band and never hold the whole
+ * image, for covers larger than the heap; see {@link StreamingCodec}.
+ * <p>
+ * Images can carry an identifier ({@link ImageId}) that extraction reads back by itself:
+ * either to look the key up wherever the caller keeps keys ({@link #readImageId}), or,
+ * with a master secret, to derive it outright ({@link #embedIdentified},
+ * {@link #extractIdentified}).
+ * <p>
+ * Stego PNGs are written with {@link PngCodec}, deflating blocks of rows on the pool,
+ * and true-colour PNGs are read back with it too; other images go through ImageIO.
+ */
+public final class StegoEngine {
+    /** Channels at the end of the image reserved for the image ID in identified embeddings. */
+    public static final int ID_POSITIONS = ImageId.POSITIONS;
+
+    private final ForkJoinPool pool;
+    private final StegoOptions options;
+
+    /** Large payloads use the common fork-join pool. */
+    public StegoEngine() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool pool for splitting large payloads, or null to always run on the calling
+     *             thread (useful when the caller already runs one image per worker)
+     */
+    public StegoEngine(ForkJoinPool pool) {
+        this(pool, StegoOptions.defaults());
+    }
+
+    /** @param options layout used for embedding; extraction reads it back from the header */
+    public StegoEngine(ForkJoinPool pool, StegoOptions options) {
+        this.pool = pool;
+        this.options = options;
+    }
+
+    /** A fresh random key covering every channel of cover, blocked if the options say so. */
+    public SequenceKey newKey(BufferedImage cover) {
+        return newKey(channelCount(cover));
+    }
+
+    /** Embeds payload into cover in place. */
+    public void embed(BufferedImage cover, byte[] payload, SequenceKey key) {
+        checkKey(cover, key);
+        StegoCodec.embed(cover, payload, key.toPositions(), options, pool);
+    }
+
+    public byte[] extract(BufferedImage stego, SequenceKey key) {
+        checkKey(stego, key);
+        return StegoCodec.extract(stego, key.toPositions(), pool);
+    }
+
+    /**
+     * A fresh random key for an image that will carry an identifier: it leaves the last
+     * {@link #ID_POSITIONS} channels free for {@link #embed(BufferedImage, byte[], SequenceKey, UUID)}.
+     */
+    public SequenceKey newIdentifiedKey(BufferedImage cover) {
+        return newKey(ImageId.keyLength(channelCount(cover)));
+    }
+
+    /** Embeds payload with key and writes imageId into the reserved region of cover. */
+    public void embed(BufferedImage cover, byte[] payload, SequenceKey key, UUID imageId) {
+        if (key.length() > ImageId.keyLength(channelCount(cover))) {
+            throw new IllegalArgumentException("Key overlaps the image ID region; use newIdentifiedKey");
+        }
+        embed(cover, payload, key);
+        new ImageId(imageId, key.algorithm()).write(LsbRaster.of(cover));
+    }
+
+    /** The identifier stego carries, or null if it has none (including every image embedded without one). */
+    public static UUID readImageId(BufferedImage stego) {
+        ImageId id = ImageId.read(LsbRaster.of(stego));
+        return id != null ? id.id : null;
+    }
+
+    /**
+     * Embeds payload under a new random identifier with the key derived from masterKey
+     * and that identifier, and returns the identifier. Nothing needs to be stored: {@link
+     * #extractIdentified} recomputes the key from the image and the same secret.
+     */
+    public UUID embedIdentified(BufferedImage cover, byte[] payload, byte[] masterKey) {
+        UUID id = UUID.randomUUID();
+        String algorithm = options.blockPermutation() ? SequenceKey.BLOCK_FEISTEL : SequenceKey.FEISTEL;
+        embed(cover, payload, SequenceKey.derive(algorithm, ImageId.keyLength(channelCount(cover)), masterKey, id), id);
+        return id;
+    }
+
+    /** The sequence kind is read from the image, so this engine's options do not need to match the embedder's. */
+    public byte[] extractIdentified(BufferedImage stego, byte[] masterKey) {
+        ImageId id = ImageId.read(LsbRaster.of(stego));
+        if (id == null) {
+            throw new IllegalArgumentException("Image carries no image ID");
+        }
+        return extract(stego, SequenceKey.derive(id.keyAlgorithm, ImageId.keyLength(channelCount(stego)), masterKey, id.id));
+    }
+
+    /** Reads a cover image from in, embeds payload and writes the result to out as PNG. */
+    public void embed(InputStream cover, byte[] payload, SequenceKey key, OutputStream stego) throws IOException {
+        BufferedImage image = toEmbeddable(read(cover));
+        embed(image, payload, key);
+        write(image, stego);
+    }
+
+    public byte[] extract(InputStream stego, SequenceKey key) throws IOException {
+        return extract(read(stego), key);
+    }
+
+    /**
+     * Like {@link #embed(InputStream, byte[], SequenceKey, OutputStream)}. A payload too
+     * large for the cover is rejected from the cover's dimensions, before it is decoded.
+     */
+    public void embed(File cover, byte[] payload, SequenceKey key, File stego) throws IOException {
+        EncodedPayload encoded = EncodedPayload.encode(payload, options);
+        StegoCodec.checkFits(encoded.header, Math.min(channelCount(cover), key.length()));
+        BufferedImage image = toEmbeddable(read(cover));
+        checkKey(image, key);
+        StegoCodec.embed(image, encoded, key.toPositions(), pool);
+        write(image, stego);
+    }
+
+    /** Like {@link #embed(File, byte[], SequenceKey, File)} with a fresh key, which is returned. */
+    public SequenceKey embed(File cover, byte[] payload, File stego) throws IOException {
+        EncodedPayload encoded = EncodedPayload.encode(payload, options);
+        StegoCodec.checkFits(encoded.header, channelCount(cover));
+        BufferedImage image = toEmbeddable(read(cover));
+        SequenceKey key = newKey(image);
+        StegoCodec.embed(image, encoded, key.toPositions(), pool);
+        write(image, stego);
+        return key;
+    }
+
+    public byte[] extract(File stego, SequenceKey key) throws IOException {
+        return extract(read(stego), key);
+    }
+
+    /** Like {@link #embedIdentified(BufferedImage, byte[], byte[])}, writing the result to stego as PNG. */
+    public UUID embedIdentified(File cover, byte[] payload, byte[] masterKey, File stego) throws IOException {
+        BufferedImage image = toEmbeddable(read(cover));
+        UUID id = embedIdentified(image, payload, masterKey);
+        write(image, stego);
+        return id;
+    }
+
+    public byte[] extractIdentified(File stego, byte[] masterKey) throws IOException {
+        return extractIdentified(read(stego), masterKey);
+    }
+
+    /** A fresh random key for a cover file; only its dimensions are read. */
+    public SequenceKey newKey(File cover) throws IOException {
+        return newKey(channelCount(cover));
+    }
+
+    private SequenceKey newKey(long length) {
+        return options.blockPermutation() ? SequenceKey.generateBlocked(length) : SequenceKey.generate(length);
+    }
+
+    /** Capacity of a width x height cover for payloadBytes with this engine's options. */
+    public CapacityPlan plan(int width, int height, int payloadBytes) {
+        return CapacityPlan.of(width, height, payloadBytes, options);
+    }
+
+    /**
+     * Capacity of a cover file for this exact payload, compressed first if the options say
+     * so. Only the image dimensions are read, so this takes microseconds even for huge covers.
+     */
+    public CapacityPlan plan(File cover, byte[] payload) throws IOException {
+        try (ImageInputStream in = open(cover)) {
+            ImageReader reader = reader(in);
+            try {
+                return CapacityPlan.of(reader.getWidth(0), reader.getHeight(0), payload, options);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Like {@link #embed(File, byte[], SequenceKey, File)}, but the cover is decoded and the
+     * PNG encoded a band of rows at a time. Matrix embedding and multi-bit channels are not
+     * available this way.
+     */
+    public void embedStreaming(File cover, byte[] payload, SequenceKey key, File stego) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
+        if (!writers.hasNext()) {
+            throw new IOException("No PNG writer available");
+        }
+        ImageWriter writer = writers.next();
+        Files.deleteIfExists(stego.toPath());
+        try (ImageInputStream in = open(cover); ImageOutputStream out = ImageIO.createImageOutputStream(stego)) {
+            ImageReader reader = reader(in);
+            try {
+                checkKey(reader.getWidth(0), reader.getHeight(0), key);
+                writer.setOutput(out);
+                StreamingCodec.embed(reader, payload, key.toPositions(), options, writer);
+            } finally {
+                reader.dispose();
+                writer.dispose();
+            }
+        }
+    }
+
+    /** Like {@link #embedStreaming(File, byte[], SequenceKey, File)} with a fresh key, which is returned. */
+    public SequenceKey embedStreaming(File cover, byte[] payload, File stego) throws IOException {
+        SequenceKey key = newKey(cover);
+        embedStreaming(cover, payload, key, stego);
+        return key;
+    }
+
+    /** Like {@link #extract(File, SequenceKey)}, decoding the image a band of rows at a time. */
+    public byte[] extractStreaming(File stego, SequenceKey key) throws IOException {
+        try (ImageInputStream in = open(stego)) {
+            ImageReader reader = reader(in);
+            try {
+                checkKey(reader.getWidth(0), reader.getHeight(0), key);
+                return StreamingCodec.extract(reader, key.toPositions());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    static long channelCount(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 3;
+    }
+
+    // From the image header only
+    private static long channelCount(File image) throws IOException {
+        try (ImageInputStream in = open(image)) {
+            ImageReader reader = reader(in);
+            try {
+                return (long) reader.getWidth(0) * reader.getHeight(0) * 3;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static void checkKey(BufferedImage image, SequenceKey key) {
+        checkKey(image.getWidth(), image.getHeight(), key);
+    }
+
+    private static void checkKey(int width, int height, SequenceKey key) {
+        long channels = (long) width * height * 3;
+        if (key.length() > channels) {
+            throw new IllegalArgumentException("Key covers " + key.length()
+                    + " positions but the image only has " + channels);
+        }
+    }
+
+    private static ImageInputStream open(File file) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(file);
+        if (in == null) {
+            throw new IOException("Cannot open " + file);
+        }
+        return in;
+    }
+
+    private static ImageReader reader(ImageInputStream in) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported or unreadable image");
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+
+    // The stream is buffered whole so ImageIO can start over when PngCodec declines
+    private static BufferedImage read(InputStream in) throws IOException {
+        byte[] bytes = in.readAllBytes();
+        BufferedImage image = PngCodec.read(new ByteArrayInputStream(bytes));
+        return image != null ? image : checkRead(ImageIO.read(new ByteArrayInputStream(bytes)));
+    }
+
+    private static BufferedImage read(File file) throws IOException {
+        BufferedImage image;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()), 64 * 1024)) {
+            image = PngCodec.read(in);
+        }
+        return image != null ? image : checkRead(ImageIO.read(file));
+    }
+
+    private static BufferedImage checkRead(BufferedImage image) throws IOException {
+        if (image == null) {
+            throw new IOException("Unsupported or unreadable image");
+        }
+        return image;
+    }
+
+    private void write(BufferedImage image, OutputStream out) throws IOException {
+        PngCodec.write(image, out, options.pngLevel(), options.pngFilter(), pool);
+        out.flush();
+    }
+
+    private void write(BufferedImage image, File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()), 64 * 1024)) {
+            PngCodec.write(image, out, options.pngLevel(), options.pngFilter(), pool);
+        }
+    }
+
+    // Palette and grey-scale images cannot hold arbitrary RGB LSBs, so copy them to a
+    // true-colour type before embedding; the four fast-path types are used as they are.
+    static BufferedImage toEmbeddable(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                return image;
+            default:
+                int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+                BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), type);
+                Graphics2D g = copy.createGraphics();
+                g.drawImage(image, 0, 0, null);
+                g.dispose();
+                return copy;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package steganography;
+
+/**
+ * How a payload is laid out when embedding. Everything chosen here is recorded in the
+ * payload header, so extraction needs only the key. The PNG settings only decide how
+ * {@link StegoEngine} encodes the stego images it writes, and the permutation setting
+ * only which kind of key it generates; the kind is part of the key.
+ * <p>
+ * Instances are immutable; the {@code with*} methods return modified copies.
+ */
+public final class StegoOptions {
+    private static final int DEFAULT_PNG_LEVEL = 4;
+    private static final StegoOptions DEFAULTS = new StegoOptions(StegoCodec.DEFAULT_REDUNDANCY, Fec.NONE, 0, 1, false,
+            false, DEFAULT_PNG_LEVEL, PngFilter.PAETH);
+
+    private final int redundancy;
+    private final Fec fec;
+    private final int matrixBits;
+    private final int bitsPerChannel;
+    private final boolean compression;
+    private final boolean blockPermutation;
+    private final int pngLevel;
+    private final PngFilter pngFilter;
+
+    private StegoOptions(int redundancy, Fec fec, int matrixBits, int bitsPerChannel, boolean compression,
+                         boolean blockPermutation, int pngLevel, PngFilter pngFilter) {
+        this.redundancy = redundancy;
+        this.fec = fec;
+        this.matrixBits = matrixBits;
+        this.bitsPerChannel = bitsPerChannel;
+        this.compression = compression;
+        this.blockPermutation = blockPermutation;
+        this.pngLevel = pngLevel;
+        this.pngFilter = pngFilter;
+    }
+
+    /** Triple repetition at one bit per channel without error correction or compression, as images have always been written. */
+    public static StegoOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Copies of each coded bit, 1 to 255. With an error-correcting {@link Fec} a
+     * redundancy of 1 is usually the better trade.
+     */
+    public StegoOptions withRedundancy(int redundancy) {
+        if (redundancy < 1 || redundancy > 255) {
+            throw new IllegalArgumentException("Redundancy must be between 1 and 255: " + redundancy);
+        }
+        return new StegoOptions(redundancy, fec, matrixBits, bitsPerChannel, compression, blockPermutation, pngLevel, pngFilter);
+    }
+
+    public StegoOptions withFec(Fec fec) {
+        if (fec == null) {
+            throw new IllegalArgumentException("fec must not be null");
+        }
+        return new StegoOptions(redundancy, fec, matrixBits, bitsPerChannel, compression, blockPermutation, pngLevel, pngFilter);
+    }
+
+    /**
+     * Matrix embedding with k message bits per group of 2^k - 1 positions (k from 2 to 8),
+     * changing at most one LSB per group; 0 turns it off. Redundancy is not applied in
+     * this mode.
+     */
+    public StegoOptions withMatrixEmbedding(int k) {
+        if (k != 0 && (k < MatrixEmbedding.MIN_BITS || k > MatrixEmbedding.MAX_BITS)) {
+            throw new IllegalArgumentException("Matrix embedding bits must be 0 or between "
+                    + MatrixEmbedding.MIN_BITS + " and " + MatrixEmbedding.MAX_BITS + ": " + k);
+        }
+        if (k != 0 && bitsPerChannel > 1) {
+            throw new IllegalArgumentException("Matrix embedding needs one bit per channel");
+        }
+        return new StegoOptions(redundancy, fec, k, bitsPerChannel, compression, blockPermutation, pngLevel, pngFilter);
+    }
+
+    /**
+     * Payload bits stored in each selected channel, 1 to 4, replacing its lowest bits. More
+     * bits carry more payload per touched pixel and need that many times fewer positions,
+     * but change pixels by up to 2^k - 1 levels. Not combinable with matrix embedding.
+     */
+    public StegoOptions withBitsPerChannel(int k) {
+        if (k < 1 || k > PayloadHeader.MAX_LSB_BITS) {
+            throw new IllegalArgumentException("Bits per channel must be between 1 and "
+                    + PayloadHeader.MAX_LSB_BITS + ": " + k);
+        }
+        if (k > 1 && matrixBits != 0) {
+            throw new IllegalArgumentException("Matrix embedding needs one bit per channel");
+        }
+        return new StegoOptions(redundancy, fec, matrixBits, k, compression, blockPermutation, pngLevel, pngFilter);
+    }
+
+    /**
+     * Deflate the payload before embedding. Payloads that do not get smaller are stored
+     * as they are, so this never costs capacity.
+     */
+    public StegoOptions withCompression(boolean compression) {
+        return new StegoOptions(redundancy, fec, matrixBits, bitsPerChannel, compression, blockPermutation, pngLevel, pngFilter);
+    }
+
+    /**
+     * Generate keys that visit the image in keyed blocks of 1024 pixels rather than
+     * scattering every slot over the whole image: several times faster on large covers,
+     * at the price of concentrating the changes in fewer regions. See {@link BlockSequence}.
+     */
+    public StegoOptions withBlockPermutation(boolean blockPermutation) {
+        return new StegoOptions(redundancy, fec, matrixBits, bitsPerChannel, compression, blockPermutation, pngLevel, pngFilter);
+    }
+
+    /**
+     * Deflate level of written PNGs, 0 (stored) to 9. The default of 4 with Paeth
+     * filtering encodes about as fast as ImageIO on one core and roughly 40% smaller;
+     * levels above 5 are several times slower for a few percent more.
+     */
+    public StegoOptions withPngLevel(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("PNG level must be between 0 and 9: " + level);
+        }
+        return new StegoOptions(redundancy, fec, matrixBits, bitsPerChannel, compression, blockPermutation, level, pngFilter);
+    }
+
+    public StegoOptions withPngFilter(PngFilter filter) {
+        if (filter == null) {
+            throw new IllegalArgumentException("filter must not be null");
+        }
+        return new StegoOptions(redundancy, fec, matrixBits, bitsPerChannel, compression, blockPermutation, pngLevel, filter);
+    }
+
+    public int redundancy() {
+        return redundancy;
+    }
+
+    public Fec fec() {
+        return fec;
+    }
+
+    /** Message bits per matrix embedding group, 0 when off. */
+    public int matrixBits() {
+        return matrixBits;
+    }
+
+    public int bitsPerChannel() {
+        return bitsPerChannel;
+    }
+
+    public boolean compression() {
+        return compression;
+    }
+
+    public boolean blockPermutation() {
+        return blockPermutation;
+    }
+
+    public int pngLevel() {
+        return pngLevel;
+    }
+
+    public PngFilter pngFilter() {
+        return pngFilter;
+    }
+
+    @Override
+    public String toString() {
+        return "StegoOptions[redundancy=" + redundancy + ", fec=" + fec + ", matrixBits=" + matrixBits
+                + ", bitsPerChannel=" + bitsPerChannel + ", compression=" + compression
+                + ", blockPermutation=" + blockPermutation + ", pngLevel=" + pngLevel + ", pngFilter=" + pngFilter + "]";
+    }
+}
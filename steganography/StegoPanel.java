@@ -11,23 +11,21 @@ import java.awt.dnd.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.sql.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class StegoPanel extends JPanel {
     private BufferedImage image;
     private JTextArea textArea;
     private JLabel imageLabel;
-    private DBConnection dbConnection; // DBConnection instance
+    private final SequenceStore sequenceStore = openSequenceStore();
+    private final StegoEngine engine = new StegoEngine(ForkJoinPool.commonPool(), StegoOptions.defaults().withCompression(true));
 
     public StegoPanel() {
-        dbConnection = new DBConnection(); // Initialize DBConnection
-
         setLayout(new BorderLayout());
 
         textArea = new JTextArea("Drop text here...");
@@ -60,6 +58,12 @@ public class StegoPanel extends JPanel {
         buttonPanel.add(cancel);
         panel.add(buttonPanel, BorderLayout.SOUTH);
 
+        if (sequenceStore == null) {
+            // Keys could not be kept, so an embedded image could never be read back
+            embedButton.setEnabled(false);
+            extractButton.setEnabled(false);
+        }
+
         add(panel, BorderLayout.EAST);
         add(imageLabel, BorderLayout.CENTER);
     }
@@ -101,9 +105,28 @@ public class StegoPanel extends JPanel {
         public void actionPerformed(ActionEvent e) {
             if (image != null && !textArea.getText().isEmpty()) {
                 String uniqueImageId = generateUniqueImageId(); // Generate unique image ID
-                int[] prSequence = generatePseudoRandomSequence(image.getWidth() * image.getHeight() * 3);
-                embedData(image, textArea.getText(), prSequence);
-                dbConnection.saveSequence(uniqueImageId, prSequence); // Store sequence with unique ID
+                SequenceKey sequenceKey;
+                try {
+                    // The ID goes into the image too, so extraction finds the key by itself
+                    sequenceKey = engine.newIdentifiedKey(image);
+                    engine.embed(image, textArea.getText().getBytes(StandardCharsets.UTF_8), sequenceKey,
+                            UUID.fromString(uniqueImageId));
+                } catch (IllegalArgumentException ex) {
+                    JOptionPane.showMessageDialog(null,
+                            "The text does not fit into this image.\n" + ex.getMessage(),
+                            "Too Much Text",
+                            JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+                try {
+                    sequenceStore.save(uniqueImageId, sequenceKey); // Store sequence seed with unique ID
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(null,
+                            "The sequence could not be stored, so the text could not be extracted later.\n" + ex.getMessage(),
+                            "Error",
+                            JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
 
                 try {
                     // Create a JFileChooser for saving the image
@@ -177,16 +200,27 @@ public class StegoPanel extends JPanel {
     private class ExtractButtonListener implements ActionListener {
         public void actionPerformed(ActionEvent e) {
             if (image != null) {
-                String imageId = JOptionPane.showInputDialog(null,
+                // Images embedded with their ID need no lookup; older ones still ask for it
+                UUID embeddedId = StegoEngine.readImageId(image);
+                String imageId = embeddedId != null ? embeddedId.toString() : JOptionPane.showInputDialog(null,
                         "Please enter the Image ID:",
                         "Enter Image ID",
                         JOptionPane.QUESTION_MESSAGE);
 
                 if (imageId != null && !imageId.trim().isEmpty()) {
-                    int[] prSequence = dbConnection.getSequence(imageId);
+                    SequenceKey sequenceKey;
+                    try {
+                        sequenceKey = sequenceStore.find(imageId);
+                    } catch (IOException ex) {
+                        JOptionPane.showMessageDialog(null,
+                                "The sequence store could not be read.\n" + ex.getMessage(),
+                                "Error",
+                                JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
 
-                    if (prSequence != null) {
-                        String extractedText = extractData(image, prSequence);
+                    if (sequenceKey != null && sequenceKey.length() <= StegoEngine.channelCount(image)) {
+                        String extractedText = new String(engine.extract(image, sequenceKey), StandardCharsets.UTF_8);
 
                         if (extractedText != null && !extractedText.isEmpty()) {
                             JTextArea textArea = new JTextArea("Extracted Text:\n" + extractedText);
@@ -243,180 +277,24 @@ public class StegoPanel extends JPanel {
         // For example, you could disable certain buttons or fields
     }
 
-
-
-    private void embedData(BufferedImage image, String data, int[] prSequence) {
-        String dataBin = toBinary(data);
-        int dataIdx = 0;
-        int redundancy = 3;
-
-        for (char bit : dataBin.toCharArray()) {
-            for (int r = 0; r < redundancy; r++) {
-                if (dataIdx >= prSequence.length) break;
-
-                int idx = prSequence[dataIdx];
-                int x = (idx / 3) % image.getWidth();
-                int y = (idx / 3) / image.getWidth();
-                int channel = idx % 3;
-
-                int pixel = image.getRGB(x, y);
-                int color = (pixel >> (8 * (2 - channel))) & 0xFF;
-                color = (color & 0xFE) | (bit - '0');
-                pixel = (pixel & ~(0xFF << (8 * (2 - channel)))) | (color << (8 * (2 - channel)));
-                image.setRGB(x, y, pixel);
-
-                dataIdx++;
-            }
-        }
-    }
-
-    private String extractData(BufferedImage image, int[] prSequence) {
-        int dataLen = 100; // Assuming length of the hidden data
-        int redundancy = 3;
-        int[] bitCounts = new int[dataLen * 8];
-
-        int dataIdx = 0;
-        for (int i = 0; i < dataLen * 8 * redundancy; i++) {
-            if (dataIdx >= prSequence.length) break;
-
-            int idx = prSequence[dataIdx];
-            int x = (idx / 3) % image.getWidth();
-            int y = (idx / 3) / image.getWidth();
-            int channel = idx % 3;
-
-            int pixel = image.getRGB(x, y);
-            int color = (pixel >> (8 * (2 - channel))) & 0xFF;
-            int bit = color & 1;
-            bitCounts[i / redundancy] += bit;
-
-            dataIdx++;
-        }
-
-        StringBuilder dataBin = new StringBuilder();
-        for (int count : bitCounts) {
-            dataBin.append(count > redundancy / 2 ? '1' : '0');
-        }
-
-        return fromBinary(dataBin.toString());
-    }
-
-    private String toBinary(String text) {
-        StringBuilder bin = new StringBuilder();
-        for (char c : text.toCharArray()) {
-            bin.append(String.format("%8s", Integer.toBinaryString(c)).replace(' ', '0'));
-        }
-        return bin.toString();
-    }
-
-    private String fromBinary(String bin) {
-        StringBuilder text = new StringBuilder();
-        for (int i = 0; i < bin.length(); i += 8) {
-            String byteString = bin.substring(i, i + 8);
-            text.append((char) Integer.parseInt(byteString, 2));
-        }
-        return text.toString();
-    }
-
-    private int[] generatePseudoRandomSequence(int length) {
-        Random random = new Random();
-        int[] sequence = new int[length];
-        for (int i = 0; i < length; i++) {
-            sequence[i] = i;
-        }
-        for (int i = 0; i < length; i++) {
-            int j = random.nextInt(length);
-            int temp = sequence[i];
-            sequence[i] = sequence[j];
-            sequence[j] = temp;
-        }
-        return sequence;
-    }
-
     private String generateUniqueImageId() {
         return UUID.randomUUID().toString();
     }
-}
-class DBConnection {
-    private Connection con;
-
-    public DBConnection() {
-        try {String envFilePath = "steganography/.env";
-            Map<String, String> envVars = EnvLoad.loadEnv(envFilePath);
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            con = DriverManager.getConnection(envVars.get("DB_URL"), envVars.get("DB_USER"), envVars.get("DB_PASSWORD"));
-            if (con != null) {
-                System.out.println("DB CONNECTED!");
-            }
-        } catch (ClassNotFoundException | SQLException e) {
-            System.err.println("DB connection failure!");
-            e.printStackTrace();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
 
-    public void saveSequence(String imageId, int[] sequence) {
-        String query = "INSERT INTO PseudoRandomSequences (image_id, sequence) VALUES (?, ?)";
-        try (PreparedStatement stmt = con.prepareStatement(query)) {
-            stmt.setString(1, imageId);
-            stmt.setString(2, sequenceToString(sequence));
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
+    /**
+     * The store steganography/.env configures (see {@link SequenceStore#open}), or null
+     * after telling the user why it could not be opened. Keys are only kept in memory
+     * when SEQUENCE_STORE=memory asks for it, never in place of a store that failed.
+     */
+    static SequenceStore openSequenceStore() {
+        try {
+            return SequenceStore.open(EnvLoad.loadEnv("steganography/.env"));
+        } catch (IOException | IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(null,
+                    "The sequence store could not be opened, so images can be neither embedded nor extracted.\n" + e.getMessage(),
+                    "Sequence Store Unavailable",
+                    JOptionPane.ERROR_MESSAGE);
+            return null;
         }
     }
-
-    public int[] getSequence(String imageId) {
-        String query = "SELECT sequence FROM PseudoRandomSequences WHERE image_id = ?";
-        try (PreparedStatement stmt = con.prepareStatement(query)) {
-            stmt.setString(1, imageId);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return stringToSequence(rs.getString("sequence"));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return new int[0]; // Return empty array if not found
-    }
-
-    private String sequenceToString(int[] sequence) {
-        StringBuilder sb = new StringBuilder();
-        for (int num : sequence) {
-            sb.append(num).append(",");
-        }
-        return sb.toString();
-    }
-
-    private int[] stringToSequence(String sequenceStr) {
-        String[] parts = sequenceStr.split(",");
-        return Arrays.stream(parts)
-                .filter(part -> !part.isEmpty())
-                .mapToInt(Integer::parseInt)
-                .toArray();
-    }
 }
-
-class EnvLoad {
-    public static Map<String, String> loadEnv(String filePath) throws IOException {
-        Map<String, String> envVars = new HashMap<>();
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty() || line.startsWith("#")) {
-                    continue; // Skip empty lines and comments
-                }
-                String[] parts = line.split("=", 2);
-                if (parts.length == 2) {
-                    String key = parts[0].trim();
-                    String value = parts[1].trim();
-                    envVars.put(key, value);
-                }
-            }
-        }
-
-        return envVars;
-    }
-}
\ No newline at end of file
@@ -0,0 +1,390 @@
+package steganography;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * Embedding and extraction for covers that do not fit in memory. The cover is decoded in
+ * bands of whole rows through {@link ImageReadParam#setSourceRegion}, so at most one band
+ * is held at a time.
+ * <p>
+ * Sequence positions are first bucketed by the band that holds them, at 4 bytes per used
+ * position (offset within the band plus the bit). Each band is then visited once, in
+ * order. On embed the modified bands are pulled straight into the {@link ImageWriter} by a
+ * {@link RenderedImage} that decodes band by band. On extract the bucketed LSBs are handed
+ * back in sequence order for majority voting.
+ * <p>
+ * The on-image layout is the same as {@link StegoCodec}'s, except for matrix embedding:
+ * it needs to read LSBs across the whole cover before it can decide what to write, so it
+ * is not offered here. Neither is more than one bit per channel, which would not fit the
+ * one spare bit of a bucketed entry. Readers that support random access to regions (tiled or striped
+ * TIFF, for instance) decode each band once. ImageIO's PNG reader inflates every row above
+ * a band again for each band.
+ */
+final class StreamingCodec {
+    /** Pixels decoded at a time: 16 M pixels is 64 MB as TYPE_INT_RGB. */
+    static final int BAND_PIXELS = 1 << 24;
+
+    private StreamingCodec() {
+    }
+
+    /** Reads the cover from reader, embeds payload and writes the result with writer. */
+    static void embed(ImageReader reader, byte[] payload, PositionSequence prSequence, StegoOptions options, ImageWriter writer) throws IOException {
+        EncodedPayload encoded = EncodedPayload.encode(payload, options);
+        PayloadHeader header = encoded.header;
+        if (header.isMatrix() || header.lsbBits > 1) {
+            throw new IllegalArgumentException("Matrix embedding and multi-bit channels are not available when streaming");
+        }
+        StegoCodec.checkFits(header, prSequence.length());
+        Bands bands = new Bands(reader.getWidth(0), reader.getHeight(0));
+        long dataIdx = bucket(bands, prSequence, 0, new BitReader(header.toBytes()), PayloadHeader.HEADER_REDUNDANCY);
+        bucket(bands, prSequence, dataIdx, new BitReader(encoded.coded, 0, header.codedBits()), header.redundancy);
+        try {
+            writer.write(new BandedImage(reader, bands));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    static byte[] extract(ImageReader reader, PositionSequence prSequence) throws IOException {
+        Bands bands = new Bands(reader.getWidth(0), reader.getHeight(0));
+
+        // First pass: enough slots for the longest header, or for a payload from before headers
+        long legacySlots = (long) StegoCodec.LEGACY_DATA_LEN * 8 * StegoCodec.DEFAULT_REDUNDANCY;
+        SlotReader slots = new SlotReader(reader, bands, prSequence, 0, Math.min(legacySlots, prSequence.length()));
+        PayloadHeader header = null;
+        if (prSequence.length() >= PayloadHeader.BASE_POSITIONS) {
+            byte[] headerBytes = slots.readBytes(PayloadHeader.BASE_BYTES, PayloadHeader.HEADER_REDUNDANCY);
+            int size = PayloadHeader.sizeBytes(headerBytes);
+            if (size > 0 && (long) size * 8 * PayloadHeader.HEADER_REDUNDANCY <= prSequence.length()) {
+                slots.rewind();
+                header = PayloadHeader.parse(slots.readBytes(size, PayloadHeader.HEADER_REDUNDANCY), prSequence.length());
+            }
+        }
+        if (header == null) {
+            slots.rewind();
+            return slots.readBytes(StegoCodec.LEGACY_DATA_LEN, StegoCodec.DEFAULT_REDUNDANCY);
+        }
+        if (header.isMatrix() || header.lsbBits > 1) {
+            throw new IllegalArgumentException("Matrix embedded and multi-bit payloads cannot be read when streaming");
+        }
+
+        long codedBits = header.codedBits();
+        bands.clear();
+        slots = new SlotReader(reader, bands, prSequence, header.positions(), header.totalPositions());
+        BitWriter coded = new BitWriter((int) ((codedBits + 7) / 8));
+        slots.readBits(coded, codedBits, header.redundancy);
+        return EncodedPayload.decode(header, coded.toByteArray());
+    }
+
+    // Buckets every bit from bits, redundancy times, starting at sequence index dataIdx
+    private static long bucket(Bands bands, PositionSequence prSequence, long dataIdx, BitReader bits, int redundancy) {
+        while (bits.hasNext()) {
+            int bit = bits.readBit();
+            for (int r = 0; r < redundancy; r++) {
+                bands.add(prSequence.position(dataIdx++), bit);
+            }
+        }
+        return dataIdx;
+    }
+
+    private static BufferedImage readBand(ImageReader reader, Bands bands, int band) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(0, band * bands.rows, bands.width, bands.rows(band)));
+        return reader.read(0, param);
+    }
+
+    /**
+     * Channel positions grouped by the band of rows that holds them, each stored as its
+     * offset within the band shifted left by one, with a bit in the lowest place.
+     */
+    private static final class Bands {
+        final int width;
+        final int height;
+        final int rows;
+        final int count;
+        final int[][] entries;
+        final int[] sizes;
+
+        Bands(int width, int height) {
+            // Offsets within a band must survive the shift into an int
+            if ((long) width * 3 >= 1 << 30) {
+                throw new IllegalArgumentException("Image is too wide to stream: " + width);
+            }
+            this.width = width;
+            this.height = height;
+            rows = Math.max(1, Math.min(height, BAND_PIXELS / width));
+            count = (height + rows - 1) / rows;
+            entries = new int[count][];
+            sizes = new int[count];
+            clear();
+        }
+
+        int band(long position) {
+            return (int) (position / 3 / width / rows);
+        }
+
+        long start(int band) {
+            return (long) band * rows * width * 3;
+        }
+
+        int rows(int band) {
+            return Math.min(rows, height - band * rows);
+        }
+
+        void add(long position, int bit) {
+            int band = band(position);
+            int[] list = entries[band];
+            if (sizes[band] == list.length) {
+                list = entries[band] = Arrays.copyOf(list, Math.max(16, list.length * 2));
+            }
+            list[sizes[band]++] = (int) (position - start(band)) << 1 | bit;
+        }
+
+        void clear() {
+            Arrays.fill(entries, new int[0]);
+            Arrays.fill(sizes, 0);
+        }
+    }
+
+    // LSBs of sequence slots [from, to), read band by band, handed out in sequence order
+    private static final class SlotReader {
+        private final Bands bands;
+        private final PositionSequence prSequence;
+        private final long from;
+        private final long to;
+        private final int[] cursors;
+        private long next;
+
+        SlotReader(ImageReader reader, Bands bands, PositionSequence prSequence, long from, long to) throws IOException {
+            this.bands = bands;
+            this.prSequence = prSequence;
+            this.from = from;
+            this.to = to;
+            this.cursors = new int[bands.count];
+            for (long i = from; i < to; i++) {
+                bands.add(prSequence.position(i), 0);
+            }
+            for (int band = 0; band < bands.count; band++) {
+                if (bands.sizes[band] == 0) {
+                    continue;
+                }
+                LsbRaster raster = LsbRaster.of(readBand(reader, bands, band));
+                int[] list = bands.entries[band];
+                for (int j = 0; j < bands.sizes[band]; j++) {
+                    list[j] |= raster.getLsb(list[j] >>> 1);
+                }
+            }
+            rewind();
+        }
+
+        void rewind() {
+            Arrays.fill(cursors, 0);
+            next = from;
+        }
+
+        int nextBit() {
+            int band = bands.band(prSequence.position(next++));
+            return bands.entries[band][cursors[band]++] & 1;
+        }
+
+        // Majority-votes bitCount bits, each stored redundancy times; like StegoCodec, bits cut
+        // off by the end of the slots are voted over the copies that exist, or left 0
+        void readBits(BitWriter out, long bitCount, int redundancy) {
+            for (long i = 0; i < bitCount && next < to; i++) {
+                int count = 0;
+                for (int r = 0; r < redundancy && next < to; r++) {
+                    count += nextBit();
+                }
+                out.writeBit(count > redundancy / 2 ? 1 : 0);
+            }
+        }
+
+        byte[] readBytes(int byteCount, int redundancy) {
+            BitWriter out = new BitWriter(byteCount);
+            readBits(out, (long) byteCount * 8, redundancy);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * The stego image as the writer sees it: one tile per band, decoded and modified when
+     * first asked for. Writers pull rows top to bottom, so only the current band is kept.
+     */
+    private static final class BandedImage implements RenderedImage {
+        private final ImageReader reader;
+        private final Bands bands;
+        private final SampleModel sampleModel;
+        private final ColorModel colorModel;
+        private int current = -1;
+        private BufferedImage currentImage;
+        private WritableRaster currentRaster;
+
+        BandedImage(ImageReader reader, Bands bands) {
+            this.reader = reader;
+            this.bands = bands;
+            // Every band decodes to the same type, so the first one describes the image
+            sampleModel = band(0).getSampleModel();
+            colorModel = currentImage.getColorModel();
+        }
+
+        // Decodes band, applies its bits and returns its raster translated to image coordinates;
+        // ImageWriter.write only throws IOException, so read failures travel unchecked
+        private WritableRaster band(int band) {
+            if (band != current) {
+                try {
+                    currentImage = StegoEngine.toEmbeddable(readBand(reader, bands, band));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                LsbRaster raster = LsbRaster.of(currentImage);
+                int[] list = bands.entries[band];
+                for (int j = 0; j < bands.sizes[band]; j++) {
+                    raster.setLsb(list[j] >>> 1, list[j] & 1);
+                }
+                currentRaster = currentImage.getRaster().createWritableTranslatedChild(0, band * bands.rows);
+                current = band;
+            }
+            return currentRaster;
+        }
+
+        @Override
+        public Raster getData(Rectangle rect) {
+            int first = rect.y / bands.rows;
+            int last = (rect.y + rect.height - 1) / bands.rows;
+            if (first == last) {
+                return band(first).createChild(rect.x, rect.y, rect.width, rect.height, rect.x, rect.y, null);
+            }
+            WritableRaster out = Raster.createWritableRaster(
+                    sampleModel.createCompatibleSampleModel(rect.width, rect.height), new Point(rect.x, rect.y));
+            copyData(out);
+            return out;
+        }
+
+        @Override
+        public WritableRaster copyData(WritableRaster raster) {
+            if (raster == null) {
+                raster = Raster.createWritableRaster(
+                        sampleModel.createCompatibleSampleModel(bands.width, bands.height), null);
+            }
+            Rectangle target = raster.getBounds();
+            int first = target.y / bands.rows;
+            int last = (target.y + target.height - 1) / bands.rows;
+            for (int band = first; band <= last; band++) {
+                int top = Math.max(target.y, band * bands.rows);
+                int bottom = Math.min(target.y + target.height, band * bands.rows + bands.rows(band));
+                raster.setRect(band(band).createChild(target.x, top, target.width, bottom - top, target.x, top, null));
+            }
+            return raster;
+        }
+
+        @Override
+        public Raster getData() {
+            return getData(new Rectangle(0, 0, bands.width, bands.height));
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            return band(tileY);
+        }
+
+        @Override
+        public Vector<RenderedImage> getSources() {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return Image.UndefinedProperty;
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return null;
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return colorModel;
+        }
+
+        @Override
+        public SampleModel getSampleModel() {
+            return sampleModel;
+        }
+
+        @Override
+        public int getWidth() {
+            return bands.width;
+        }
+
+        @Override
+        public int getHeight() {
+            return bands.height;
+        }
+
+        @Override
+        public int getMinX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinY() {
+            return 0;
+        }
+
+        @Override
+        public int getNumXTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getNumYTiles() {
+            return bands.count;
+        }
+
+        @Override
+        public int getMinTileX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinTileY() {
+            return 0;
+        }
+
+        @Override
+        public int getTileWidth() {
+            return bands.width;
+        }
+
+        @Override
+        public int getTileHeight() {
+            return bands.rows;
+        }
+
+        @Override
+        public int getTileGridXOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getTileGridYOffset() {
+            return 0;
+        }
+    }
+}